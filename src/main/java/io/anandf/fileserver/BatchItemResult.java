@@ -0,0 +1,97 @@
+package io.anandf.fileserver;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Outcome of a batch operation for a single file. Each item of the batch request
+ * reports its own status code, so that a partial failure does not hide the items
+ * that were processed successfully.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BatchItemResult {
+
+	/**
+	 * Id of the file, if the item was requested by id
+	 */
+	private Integer id;
+
+	/**
+	 * Name of the file, if the item was requested by name
+	 */
+	private String name;
+
+	/**
+	 * HTTP like status code of the operation for this item
+	 */
+	private int status;
+
+	/**
+	 * Reason of the failure, if the operation was not successful
+	 */
+	private String message;
+
+	/**
+	 * Metadata of the file, returned for the GET operation
+	 */
+	private FileMetadata file;
+
+	/**
+	 * Constructor for creating the batch item result
+	 */
+	public BatchItemResult() {
+	}
+
+	static BatchItemResult forId(Integer id, int status) {
+		BatchItemResult result = new BatchItemResult();
+		result.setId(id);
+		result.setStatus(status);
+		return result;
+	}
+
+	static BatchItemResult forName(String name, int status) {
+		BatchItemResult result = new BatchItemResult();
+		result.setName(name);
+		result.setStatus(status);
+		return result;
+	}
+
+	public Integer getId() {
+		return id;
+	}
+
+	public void setId(Integer id) {
+		this.id = id;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	public int getStatus() {
+		return status;
+	}
+
+	public void setStatus(int status) {
+		this.status = status;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	public void setMessage(String message) {
+		this.message = message;
+	}
+
+	public FileMetadata getFile() {
+		return file;
+	}
+
+	public void setFile(FileMetadata file) {
+		this.file = file;
+	}
+}
@@ -0,0 +1,8 @@
+package io.anandf.fileserver;
+
+/**
+ * Operations that can be requested through the batch endpoint.
+ */
+public enum BatchOperation {
+	GET, DELETE,
+}
@@ -0,0 +1,56 @@
+package io.anandf.fileserver;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Request body of the batch endpoint. A batch request applies a single operation
+ * to all the files identified either by their ids or by their names.
+ */
+public class BatchRequest {
+
+	/**
+	 * Operation to be performed on every file in the batch
+	 */
+	private BatchOperation operation;
+
+	/**
+	 * Unique ids of the files on which the operation has to be performed
+	 */
+	private List<Integer> ids = new ArrayList<>();
+
+	/**
+	 * Names of the files on which the operation has to be performed
+	 */
+	private List<String> names = new ArrayList<>();
+
+	/**
+	 * Constructor for creating the batch request
+	 */
+	public BatchRequest() {
+	}
+
+	public BatchOperation getOperation() {
+		return operation;
+	}
+
+	public void setOperation(BatchOperation operation) {
+		this.operation = operation;
+	}
+
+	public List<Integer> getIds() {
+		return ids;
+	}
+
+	public void setIds(List<Integer> ids) {
+		this.ids = ids == null ? new ArrayList<>() : ids;
+	}
+
+	public List<String> getNames() {
+		return names;
+	}
+
+	public void setNames(List<String> names) {
+		this.names = names == null ? new ArrayList<>() : names;
+	}
+}
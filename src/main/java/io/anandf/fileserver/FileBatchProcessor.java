@@ -0,0 +1,280 @@
+package io.anandf.fileserver;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.anandf.fileserver.storage.LocalDiskStorage;
+import io.anandf.fileserver.storage.StorageProvider;
+import io.anandf.fileserver.storage.StorageProviderFactory;
+import io.anandf.fileserver.storage.StorageReconciler;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.transaction.Transactional;
+import jakarta.ws.rs.BadRequestException;
+
+/**
+ * Retrieves or deletes multiple files in a single transaction, and removes the stored contents of
+ * deleted files once that transaction has committed.
+ */
+@ApplicationScoped
+public class FileBatchProcessor {
+
+	private static final Logger LOG = LoggerFactory.getLogger(FileBatchProcessor.class.getName());
+
+	/**
+	 * Maximum number of ids and names accepted in a single batch request
+	 */
+	private static final int MAX_BATCH_SIZE = 10000;
+
+	/**
+	 * Executor used to remove the stored contents of the files of a batch in parallel
+	 */
+	private static final ExecutorService STORAGE_EXECUTOR = Executors.newFixedThreadPool(
+			Runtime.getRuntime().availableProcessors(), runnable -> {
+				Thread thread = new Thread(runnable, "storage-batch");
+				thread.setDaemon(true);
+				return thread;
+			});
+
+	@Inject
+	private FileMetadataStore store;
+
+	@Inject
+	private FileNameLocks locks;
+
+	@Inject
+	private StorageReconciler reconciler;
+
+	private StorageProvider storage;
+
+	public FileBatchProcessor() {
+		this.storage = StorageProviderFactory.getDefaultStorage();
+	}
+
+	FileBatchProcessor(FileMetadataStore store, FileNameLocks locks, StorageReconciler reconciler,
+			StorageProvider storage) {
+		this.store = store;
+		this.locks = locks;
+		this.reconciler = reconciler;
+		this.storage = storage;
+	}
+
+	/**
+	 * Performs the requested operation on all the files identified by the ids and names of the batch.
+	 * Repeated ids and names are only processed once, and a name identifies all the files with that name.
+	 * @param request batch request with the operation and the ids and/or names of the files
+	 * @return one result per distinct requested id followed by one result per distinct requested name
+	 * @throws BadRequestException if the operation is missing or the batch is larger than the allowed size
+	 */
+	@Transactional(Transactional.TxType.REQUIRED)
+	public List<BatchItemResult> process(BatchRequest request) {
+		if (request == null || request.getOperation() == null) {
+			throw new BadRequestException("Missing mandatory field 'operation'");
+		}
+		Set<Integer> ids = new LinkedHashSet<>(request.getIds());
+		Set<String> names = new LinkedHashSet<>(request.getNames());
+		if (ids.size() + names.size() > MAX_BATCH_SIZE) {
+			throw new BadRequestException("Batch must not contain more than " + MAX_BATCH_SIZE + " items");
+		}
+
+		Map<Integer, FileMetadata> filesById = new HashMap<>();
+		for (FileMetadata file : store.getFilesByIds(ids)) {
+			filesById.put(file.getId(), file);
+		}
+		Map<String, List<FileMetadata>> filesByName = new HashMap<>();
+		for (FileMetadata file : store.getFilesByNames(names)) {
+			filesByName.computeIfAbsent(file.getName(), key -> new ArrayList<>()).add(file);
+		}
+
+		switch (request.getOperation()) {
+		case DELETE:
+			return deleteBatch(ids, names, filesById, filesByName);
+		case GET:
+		default:
+			return getBatch(ids, names, filesById, filesByName);
+		}
+	}
+
+	/**
+	 * Deletes a single file in the current transaction, and its stored contents once the transaction
+	 * has committed
+	 * @param file metadata of the file to be deleted
+	 */
+	@Transactional(Transactional.TxType.MANDATORY)
+	public void delete(FileMetadata file) {
+		store.deleteFiles(List.of(file));
+		Map<String, PendingDeletion> pendingStorage = new HashMap<>();
+		addPendingDeletion(pendingStorage, file, null);
+		deleteFromStorageAfterCommit(pendingStorage);
+	}
+
+	private List<BatchItemResult> getBatch(Set<Integer> ids, Set<String> names, Map<Integer, FileMetadata> filesById,
+			Map<String, List<FileMetadata>> filesByName) {
+		List<BatchItemResult> results = new ArrayList<>();
+		for (Integer id : ids) {
+			FileMetadata file = filesById.get(id);
+			BatchItemResult result = BatchItemResult.forId(id, file == null ? 404 : 200);
+			if (file == null) {
+				result.setMessage("Unable to find file with ID " + id);
+			}
+			result.setFile(file);
+			results.add(result);
+		}
+		for (String name : names) {
+			List<FileMetadata> files = filesByName.get(name);
+			BatchItemResult result = BatchItemResult.forName(name, files == null ? 404 : 200);
+			if (files == null) {
+				result.setMessage("Unable to find file with name " + name);
+			} else {
+				result.setFile(files.get(0));
+			}
+			results.add(result);
+		}
+		return results;
+	}
+
+	private List<BatchItemResult> deleteBatch(Set<Integer> ids, Set<String> names,
+			Map<Integer, FileMetadata> filesById, Map<String, List<FileMetadata>> filesByName) {
+		List<BatchItemResult> results = new ArrayList<>();
+		// Stored contents to remove and the results that depend on their removal, by file name
+		Map<String, PendingDeletion> pendingStorage = new LinkedHashMap<>();
+		Map<Integer, FileMetadata> removed = new LinkedHashMap<>();
+
+		for (Integer id : ids) {
+			FileMetadata file = filesById.get(id);
+			if (file == null) {
+				BatchItemResult result = BatchItemResult.forId(id, 404);
+				result.setMessage("File with id '" + id + "' not found");
+				results.add(result);
+				continue;
+			}
+			removed.put(file.getId(), file);
+			BatchItemResult result = BatchItemResult.forId(id, 204);
+			addPendingDeletion(pendingStorage, file, result);
+			results.add(result);
+		}
+		for (String name : names) {
+			List<FileMetadata> files = filesByName.get(name);
+			if (files == null) {
+				BatchItemResult result = BatchItemResult.forName(name, 404);
+				result.setMessage("File with name '" + name + "' not found");
+				results.add(result);
+				continue;
+			}
+			BatchItemResult result = BatchItemResult.forName(name, 204);
+			for (FileMetadata file : files) {
+				removed.put(file.getId(), file);
+				addPendingDeletion(pendingStorage, file, null);
+			}
+			pendingStorage.get(name).results.add(result);
+			results.add(result);
+		}
+
+		store.deleteFiles(removed.values());
+		deleteFromStorageAfterCommit(pendingStorage);
+		return results;
+	}
+
+	/**
+	 * Stored contents of a file name that have to be removed once the transaction commits
+	 */
+	private static class PendingDeletion {
+		/**
+		 * True if any of the deleted rows with the name was a multipart upload
+		 */
+		private boolean multipart;
+
+		/**
+		 * Results that depend on the removal of the stored contents
+		 */
+		private final List<BatchItemResult> results = new ArrayList<>();
+	}
+
+	private static void addPendingDeletion(Map<String, PendingDeletion> pendingStorage, FileMetadata file,
+			BatchItemResult result) {
+		PendingDeletion pending = pendingStorage.computeIfAbsent(file.getName(), key -> new PendingDeletion());
+		pending.multipart |= file.getPartitionCount() > 0;
+		if (result != null) {
+			pending.results.add(result);
+		}
+	}
+
+	/**
+	 * Removes the stored contents of the given files once the transaction that deleted their metadata
+	 * has committed, so that a failed commit never leaves rows pointing to removed contents. The
+	 * contents are shared by all the rows with the same name, so they are kept as long as a row
+	 * with that name remains. The merged file of a multipart upload is kept as well while a single
+	 * stream upload with the merged name remains, as both are stored in the same file. The names are
+	 * locked before looking for the remaining rows and until the contents are removed, so that an
+	 * upload with the same name either commits its row before the check or writes its contents after
+	 * the removal. The transaction commits when the resource method returns, before the response is
+	 * written, so storage failures are still reported in the item results.
+	 * @param pendingStorage names of the files whose contents have to be removed, mapped to the
+	 *                       results that depend on the removal
+	 */
+	private void deleteFromStorageAfterCommit(Map<String, PendingDeletion> pendingStorage) {
+		Set<String> names = new HashSet<>(pendingStorage.keySet());
+		pendingStorage.forEach((name, pending) -> {
+			if (pending.multipart) {
+				names.add(LocalDiskStorage.MERGED_PREFIX + name);
+			}
+		});
+		locks.lockUntilCompletion(names, () -> {
+			deleteFromStorage(pendingStorage);
+			pendingStorage.forEach((name, pending) -> {
+				reconciler.recordChange(name, null);
+				if (pending.multipart) {
+					reconciler.recordChange(LocalDiskStorage.MERGED_PREFIX + name, null);
+				}
+			});
+		});
+
+		Set<String> remaining = store.getExistingNames(names);
+		pendingStorage.keySet().removeAll(remaining);
+		pendingStorage.forEach((name, pending) -> {
+			if (remaining.contains(LocalDiskStorage.MERGED_PREFIX + name)) {
+				pending.multipart = false;
+			}
+		});
+	}
+
+	private void deleteFromStorage(Map<String, PendingDeletion> pendingStorage) {
+		Map<String, CompletableFuture<Boolean>> deletions = new LinkedHashMap<>();
+		pendingStorage.forEach((fileName, pending) -> {
+			deletions.put(fileName, CompletableFuture.supplyAsync(() -> {
+				try {
+					return storage.deleteFile(fileName, pending.multipart);
+				} catch (IOException ex) {
+					throw new UncheckedIOException(ex);
+				}
+			}, STORAGE_EXECUTOR));
+		});
+		for (Map.Entry<String, CompletableFuture<Boolean>> deletion : deletions.entrySet()) {
+			try {
+				deletion.getValue().join();
+			} catch (CompletionException ex) {
+				LOG.error("error deleting stored contents of file " + deletion.getKey(), ex.getCause());
+				for (BatchItemResult result : pendingStorage.get(deletion.getKey()).results) {
+					result.setStatus(500);
+					result.setMessage("Metadata deleted, but unable to delete stored contents: "
+							+ ex.getCause().getMessage());
+				}
+			}
+		}
+	}
+}
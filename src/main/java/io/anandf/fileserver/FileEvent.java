@@ -0,0 +1,117 @@
+package io.anandf.fileserver;
+
+import jakarta.persistence.Access;
+import jakarta.persistence.AccessType;
+import jakarta.persistence.Basic;
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.NamedQueries;
+import jakarta.persistence.NamedQuery;
+import jakarta.persistence.SequenceGenerator;
+import jakarta.persistence.Table;
+
+/**
+ * A FileEvent entity class. A FileEvent is an entry of the append only change log
+ * of the <code>FileMetadata</code> objects, identified by a monotonic sequence number.
+ *
+ * Events are written in the same transaction as the change they describe, so a
+ * consumer never observes an event for a change that was rolled back.
+ */
+@Entity(name = "FileEvent")
+@Table(name = "FILE_EVENT")
+@Access(AccessType.PROPERTY)
+@NamedQueries({
+        @NamedQuery(name = "getFileEventsAfter",
+                    query = "SELECT e FROM FileEvent e WHERE e.sequence > :after AND e.sequence < :before ORDER BY e.sequence"),
+        @NamedQuery(name = "getLastFileEventSequence",
+                    query = "SELECT COALESCE(MAX(e.sequence), 0L) FROM FileEvent e")
+})
+public class FileEvent {
+
+	/**
+	 * Sequence number of the event. Taken from a database sequence, so that events
+	 * can be inserted as JDBC batches.
+	 */
+	private long sequence;
+
+	/**
+	 * Id of the file the event belongs to, if the file has metadata
+	 */
+	private Integer fileId;
+
+	/**
+	 * Name of the file the event belongs to
+	 */
+	private String fileName;
+
+	/**
+	 * Type of the lifecycle event
+	 */
+	private FileEventType type;
+
+	/**
+	 * Time at which the event was recorded, in milliseconds since the epoch
+	 */
+	private long timestamp;
+
+	/**
+	 * Constructor for creating the file event
+	 */
+	public FileEvent() {
+	}
+
+	@Id
+	@Column(name = "SEQ", nullable = false, updatable = false)
+	@SequenceGenerator(name = "fileEventSeq", sequenceName = "FILE_EVENT_SEQ", allocationSize = 50)
+	@GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "fileEventSeq")
+	public long getSequence() {
+		return sequence;
+	}
+
+	public void setSequence(long sequence) {
+		this.sequence = sequence;
+	}
+
+	@Basic(optional = true)
+	@Column(name = "FILE_ID", nullable = true, updatable = false)
+	public Integer getFileId() {
+		return fileId;
+	}
+
+	public void setFileId(Integer fileId) {
+		this.fileId = fileId;
+	}
+
+	@Basic(optional = false)
+	@Column(name = "FILE_NAME", nullable = false, updatable = false)
+	public String getFileName() {
+		return fileName;
+	}
+
+	public void setFileName(String fileName) {
+		this.fileName = fileName;
+	}
+
+	@Basic(optional = false)
+	@Column(name = "TYPE", nullable = false, updatable = false)
+	public FileEventType getType() {
+		return type;
+	}
+
+	public void setType(FileEventType type) {
+		this.type = type;
+	}
+
+	@Basic(optional = false)
+	@Column(name = "TS", nullable = false, updatable = false)
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public void setTimestamp(long timestamp) {
+		this.timestamp = timestamp;
+	}
+}
@@ -0,0 +1,115 @@
+package io.anandf.fileserver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.transaction.Synchronization;
+import jakarta.transaction.TransactionSynchronizationRegistry;
+import jakarta.transaction.Transactional;
+
+/**
+ * Append only change log of the <code>FileMetadata</code> lifecycle events.
+ *
+ * Events are only visible to readers once no transaction with a lower sequence number
+ * is still open, see <code>FileEventSequencer</code>. This bookkeeping is kept in memory,
+ * and therefore assumes a single server instance writing to the metadata store.
+ */
+@ApplicationScoped
+public class FileEventLog {
+
+	@PersistenceContext(unitName = "pu1")
+	private EntityManager entityManager;
+
+	@Inject
+	private TransactionSynchronizationRegistry transactionRegistry;
+
+	private FileEventSequencer sequencer;
+
+	/**
+	 * Bounded executor running the queries of the readers. Readers waiting for new events
+	 * do not hold any of its threads.
+	 */
+	private ExecutorService executor;
+
+	@PostConstruct
+	void init() {
+		sequencer = new FileEventSequencer(
+				entityManager.createNamedQuery("getLastFileEventSequence", Long.class).getSingleResult());
+		executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+			Thread thread = new Thread(runnable, "file-event-reader");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	@PreDestroy
+	void destroy() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Appends an event for the given file to the change log, as part of the current transaction.
+	 * @param type type of the lifecycle event
+	 * @param file metadata of the file the event belongs to
+	 */
+	@Transactional(Transactional.TxType.MANDATORY)
+	public void append(FileEventType type, FileMetadata file) {
+		FileEvent event = new FileEvent();
+		event.setType(type);
+		event.setFileId(file.getId());
+		event.setFileName(file.getName());
+		event.setTimestamp(System.currentTimeMillis());
+
+		// A single synchronization per transaction releases all the events it appended. It is
+		// registered before allocating, so that an allocated sequence is always released.
+		@SuppressWarnings("unchecked")
+		List<Long> appended = (List<Long>) transactionRegistry.getResource(FileEventLog.class);
+		if (appended == null) {
+			List<Long> sequences = new ArrayList<>();
+			transactionRegistry.registerInterposedSynchronization(new Synchronization() {
+				@Override
+				public void beforeCompletion() {
+				}
+
+				@Override
+				public void afterCompletion(int status) {
+					sequencer.complete(sequences);
+				}
+			});
+			transactionRegistry.putResource(FileEventLog.class, sequences);
+			appended = sequences;
+		}
+		long sequence = sequencer.allocate(() -> {
+			entityManager.persist(event);
+			return event.getSequence();
+		});
+		appended.add(sequence);
+	}
+
+	/**
+	 * Returns the committed events that follow the given sequence number, waiting for new
+	 * events up to the given timeout if there are none yet.
+	 * @param after sequence number of the last event seen by the consumer, 0 to start from the beginning
+	 * @param limit maximum number of events to be returned
+	 * @param timeoutMillis maximum time to wait for new events
+	 * @return events in sequence order, empty if no event was committed before the timeout
+	 */
+	public CompletableFuture<List<FileEvent>> read(long after, int limit, long timeoutMillis) {
+		return sequencer.read(after, timeoutMillis,
+				(from, before) -> entityManager.createNamedQuery("getFileEventsAfter", FileEvent.class)
+						.setParameter("after", from)
+						.setParameter("before", before)
+						.setMaxResults(limit)
+						.getResultList(),
+				executor);
+	}
+}
@@ -0,0 +1,158 @@
+package io.anandf.fileserver;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import jakarta.inject.Inject;
+import jakarta.ws.rs.BadRequestException;
+import jakarta.ws.rs.DefaultValue;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.HeaderParam;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.container.AsyncResponse;
+import jakarta.ws.rs.container.Suspended;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.sse.Sse;
+import jakarta.ws.rs.sse.SseEventSink;
+
+/**
+ * This class implements REST endpoints to consume the change log of the files. The
+ * following operations are supported:
+ *
+ * <ul>
+ * <li>GET /v1/files/events?after&limit&timeout: Long poll for the events that follow the given sequence number</li>
+ * <li>GET /v1/files/events/stream?after&limit: Server-Sent Events stream of the events that follow the given
+ * sequence number. A reconnecting client resumes from its <code>Last-Event-ID</code> header</li>
+ * </ul>
+ *
+ * Consumers remember the sequence number of the last event they processed and pass it
+ * as <code>after</code> to resume without missing or repeating events.
+ */
+@Path("v1/files/events")
+public class FileEventResource {
+
+	private static final Logger LOG = LoggerFactory.getLogger(FileEventResource.class.getName());
+
+	/**
+	 * Maximum number of events returned in a single response or sent as a single batch
+	 */
+	private static final int MAX_LIMIT = 1000;
+
+	/**
+	 * Maximum time a long poll request waits for new events
+	 */
+	private static final long MAX_TIMEOUT_MILLIS = 60000;
+
+	/**
+	 * Time after which an idle event stream sends a keepalive comment, which also
+	 * detects the clients that disconnected.
+	 */
+	private static final long KEEPALIVE_MILLIS = 15000;
+
+	@Inject
+	private FileEventLog eventLog;
+
+	/**
+	 * Returns the events that follow the given sequence number. If there are none, the request
+	 * waits up to the given timeout for new events before returning an empty list.
+	 * @param after sequence number of the last event processed by the consumer
+	 * @param limit maximum number of events to be returned
+	 * @param timeout maximum time to wait for new events, in milliseconds
+	 * @param response resumed with the list of <code>FileEvent</code> objects in sequence order
+	 * Code - Description
+	 * 200  - events that follow the given sequence number, possibly empty
+	 */
+	@GET
+	@Produces(MediaType.APPLICATION_JSON)
+	public void getEvents(@QueryParam("after") @DefaultValue("0") long after,
+			@QueryParam("limit") @DefaultValue("100") int limit,
+			@QueryParam("timeout") @DefaultValue("30000") long timeout,
+			@Suspended AsyncResponse response) {
+		eventLog.read(after, clampLimit(limit), Math.max(0, Math.min(timeout, MAX_TIMEOUT_MILLIS)))
+				.whenComplete((events, ex) -> {
+					if (ex != null) {
+						LOG.error("error reading file events", ex);
+						response.resume(ex);
+					} else {
+						response.resume(events);
+					}
+				});
+	}
+
+	/**
+	 * Streams the events that follow the given sequence number as Server-Sent Events. The id
+	 * of every sent event is its sequence number and its name is the type of the event.
+	 * @param after sequence number of the last event processed by the consumer
+	 * @param lastEventId sequence number of the last event received before a reconnect, takes precedence over after
+	 * @param limit maximum number of events read from the change log at once
+	 * @param sink sink of the event stream
+	 * @param sse factory for the outbound events
+	 */
+	@GET
+	@Path("stream")
+	@Produces(MediaType.SERVER_SENT_EVENTS)
+	public void streamEvents(@QueryParam("after") @DefaultValue("0") long after,
+			@HeaderParam("Last-Event-ID") String lastEventId,
+			@QueryParam("limit") @DefaultValue("100") int limit,
+			@Context SseEventSink sink, @Context Sse sse) {
+		long start = after;
+		if (lastEventId != null && !lastEventId.isEmpty()) {
+			try {
+				start = Long.parseLong(lastEventId);
+			} catch (NumberFormatException ex) {
+				throw new BadRequestException("Invalid Last-Event-ID header " + lastEventId);
+			}
+		}
+		sendEvents(start, clampLimit(limit), sink, sse);
+	}
+
+	/**
+	 * Sends the next batch of events and schedules the following one once it was written. The
+	 * reads run on the bounded executor of the <code>FileEventLog</code>, so an idle stream does
+	 * not hold any thread.
+	 */
+	private void sendEvents(long after, int limit, SseEventSink sink, Sse sse) {
+		if (sink.isClosed()) {
+			return;
+		}
+		eventLog.read(after, limit, KEEPALIVE_MILLIS)
+				.thenCompose(batch -> send(batch, sink, sse)
+						.thenApply(sent -> batch.isEmpty() ? after : batch.get(batch.size() - 1).getSequence()))
+				.whenComplete((cursor, ex) -> {
+					if (ex == null) {
+						sendEvents(cursor, limit, sink, sse);
+					} else {
+						LOG.debug("event stream closed after sequence {}", after);
+						sink.close();
+					}
+				});
+	}
+
+	private CompletionStage<?> send(List<FileEvent> batch, SseEventSink sink, Sse sse) {
+		if (batch.isEmpty()) {
+			return sink.send(sse.newEventBuilder().comment("keepalive").build());
+		}
+		CompletionStage<?> sent = CompletableFuture.completedFuture(null);
+		for (FileEvent event : batch) {
+			sent = sink.send(sse.newEventBuilder()
+					.id(Long.toString(event.getSequence()))
+					.name(event.getType().name())
+					.mediaType(MediaType.APPLICATION_JSON_TYPE)
+					.data(FileEvent.class, event)
+					.build());
+		}
+		// Only the last send is awaited, events of a stream are written in order
+		return sent;
+	}
+
+	private static int clampLimit(int limit) {
+		return Math.max(1, Math.min(limit, MAX_LIMIT));
+	}
+}
@@ -0,0 +1,113 @@
+package io.anandf.fileserver;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.LongSupplier;
+
+/**
+ * In memory bookkeeping of the sequence numbers of the change log.
+ *
+ * Sequence numbers are allocated in increasing order, but the transactions that
+ * write them may commit out of order. To never let a consumer skip an event, reads
+ * are bounded by the lowest sequence number whose transaction has not completed
+ * yet. Waiting readers are resumed on an executor whenever a transaction completes,
+ * so no thread is blocked while waiting for events.
+ */
+class FileEventSequencer {
+
+	/**
+	 * Sequence numbers of the events whose transaction has not completed yet
+	 */
+	private final NavigableSet<Long> inflight = new TreeSet<>();
+
+	/**
+	 * Highest sequence number allocated so far
+	 */
+	private long lastAllocated;
+
+	/**
+	 * Completed, and replaced, every time a transaction that appended events completes
+	 */
+	private CompletableFuture<Void> completion = new CompletableFuture<>();
+
+	FileEventSequencer(long lastAllocated) {
+		this.lastAllocated = lastAllocated;
+	}
+
+	/**
+	 * Allocates a sequence number and records it as inflight until its transaction completes.
+	 * The allocation is done while holding the lock, so that every number up to the last
+	 * allocated one is either completed or listed as inflight.
+	 * @param allocation allocates the sequence number, typically by persisting the event
+	 * @return the allocated sequence number
+	 */
+	synchronized long allocate(LongSupplier allocation) {
+		long sequence = allocation.getAsLong();
+		lastAllocated = Math.max(lastAllocated, sequence);
+		inflight.add(sequence);
+		return sequence;
+	}
+
+	/**
+	 * Releases the sequence numbers of a completed transaction, committed or rolled back,
+	 * and resumes the waiting readers.
+	 * @param sequences sequence numbers allocated by the transaction
+	 */
+	void complete(Collection<Long> sequences) {
+		CompletableFuture<Void> completed;
+		synchronized (this) {
+			inflight.removeAll(sequences);
+			completed = completion;
+			completion = new CompletableFuture<>();
+		}
+		completed.complete(null);
+	}
+
+	/**
+	 * Reads the committed events that follow the given sequence number, waiting up to the given
+	 * timeout if there are none yet.
+	 * @param after sequence number of the last event seen by the consumer
+	 * @param timeoutMillis maximum time to wait for new events
+	 * @param query returns the stored events after the first sequence number and below the second one
+	 * @param executor executor running the queries
+	 * @return events in sequence order, empty if no event was committed before the timeout
+	 */
+	<T> CompletableFuture<List<T>> read(long after, long timeoutMillis, BiFunction<Long, Long, List<T>> query,
+			Executor executor) {
+		CompletableFuture<List<T>> result = new CompletableFuture<>();
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		executor.execute(() -> poll(after, deadline, query, executor, result));
+		return result;
+	}
+
+	private <T> void poll(long after, long deadline, BiFunction<Long, Long, List<T>> query, Executor executor,
+			CompletableFuture<List<T>> result) {
+		try {
+			long before;
+			CompletableFuture<Void> nextCompletion;
+			synchronized (this) {
+				before = inflight.isEmpty() ? lastAllocated + 1 : inflight.first();
+				nextCompletion = completion;
+			}
+			List<T> events = query.apply(after, before);
+			long remaining = deadline - System.nanoTime();
+			if (!events.isEmpty() || remaining <= 0) {
+				result.complete(events);
+				return;
+			}
+			// The completion was read together with the bound of the query, so no transaction that
+			// completed after the query can be missed
+			nextCompletion.copy()
+					.completeOnTimeout(null, remaining, TimeUnit.NANOSECONDS)
+					.thenRunAsync(() -> poll(after, deadline, query, executor, result), executor);
+		} catch (RuntimeException ex) {
+			result.completeExceptionally(ex);
+		}
+	}
+}
@@ -0,0 +1,8 @@
+package io.anandf.fileserver;
+
+/**
+ * Lifecycle events of a file that are recorded in the change log.
+ */
+public enum FileEventType {
+	INITIATED, PARTITION_STORED, COMMITTED, DELETED,
+}
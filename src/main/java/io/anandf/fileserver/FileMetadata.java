@@ -12,8 +12,10 @@ import jakarta.persistence.Entity;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.NamedQueries;
 import jakarta.persistence.NamedQuery;
+import jakarta.persistence.SequenceGenerator;
 import jakarta.persistence.Table;
 import jakarta.persistence.Transient;
 import jakarta.persistence.Enumerated;
@@ -26,20 +28,32 @@ import jakarta.persistence.EnumType;
  * File, that has been uploaded by the user
  */
 @Entity(name = "File")
-@Table(name = "FILE")
+@Table(name = "FILE", indexes = @Index(name = "FILE_NAME_IDX", columnList = "NAME"))
 @Access(AccessType.PROPERTY)
 @NamedQueries({
         @NamedQuery(name = "getFiles",
                     query = "SELECT f FROM File f WHERE f.status=3"),
         @NamedQuery(name = "getFileByName",
         			query = "SELECT f FROM File f WHERE f.name = :name"),
+        @NamedQuery(name = "getInitiatedFileByName",
+                    query = "SELECT f FROM File f WHERE f.name = :name AND f.status IN (0, 1, 2) ORDER BY f.id DESC"),
         @NamedQuery(name = "getFileByChecksum",
-                    query = "SELECT f FROM File f WHERE f.checksum = :checksum")
+                    query = "SELECT f FROM File f WHERE f.checksum = :checksum"),
+        @NamedQuery(name = "getFilesByIds",
+                    query = "SELECT f FROM File f WHERE f.id IN :ids"),
+        @NamedQuery(name = "getFilesByNames",
+                    query = "SELECT f FROM File f WHERE f.name IN :names"),
+        @NamedQuery(name = "getFileNamesIn",
+                    query = "SELECT DISTINCT f.name FROM File f WHERE f.name IN :names"),
+        @NamedQuery(name = "getFileStates",
+                    query = "SELECT f.id, f.name, f.status, f.partitionCount FROM File f WHERE f.id > :after ORDER BY f.id"),
+        @NamedQuery(name = "updateFileStatus",
+                    query = "UPDATE File f SET f.status = :status WHERE f.id IN :ids")
 })
 public class FileMetadata {
 
 	/**
-	 * Unique identifier for the file. Autogenerated during the DB insert operation
+	 * Unique identifier for the file. Taken from a DB sequence, so that inserts can be batched
 	 */
     private int id;
 
@@ -84,7 +98,8 @@ public class FileMetadata {
 
     @Id
     @Column(name = "ID", nullable = false, updatable = false)
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @SequenceGenerator(name = "fileSeq", sequenceName = "FILE_SEQ", allocationSize = 50)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "fileSeq")
     public int getId() {
         return id;
     }
@@ -0,0 +1,140 @@
+package io.anandf.fileserver;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.transaction.Transactional;
+
+/**
+ * Bulk access to the <code>FileMetadata</code> objects, used by batch requests and to reconcile
+ * the metadata store with the contents of the storage. The inserts and updates of a reconciliation
+ * run in their own transaction, so that large reconciliations are committed in chunks.
+ */
+@ApplicationScoped
+public class FileMetadataStore {
+
+	/**
+	 * Maximum number of parameters bound to a single IN clause
+	 */
+	private static final int QUERY_CHUNK_SIZE = 1000;
+
+	@PersistenceContext(unitName = "pu1")
+	private EntityManager entityManager;
+
+	@Inject
+	private FileEventLog eventLog;
+
+	/**
+	 * Returns the sequence number of the last event of the change log, which only grows as long
+	 * as the metadata store is kept
+	 * @return sequence number of the last event, 0 if there is none
+	 */
+	public long getLastEventSequence() {
+		return entityManager.createNamedQuery("getLastFileEventSequence", Long.class).getSingleResult();
+	}
+
+	/**
+	 * Returns a page of the id, name, status and partition count of the files, ordered by id
+	 * @param afterId id of the last file of the previous page, 0 for the first page
+	 * @param limit maximum number of files in the page
+	 * @return list of arrays holding the id, name, <code>Status</code> and partition count of a file
+	 */
+	public List<Object[]> getFileStates(int afterId, int limit) {
+		return entityManager.createNamedQuery("getFileStates", Object[].class)
+				.setParameter("after", afterId)
+				.setMaxResults(limit)
+				.getResultList();
+	}
+
+	/**
+	 * Inserts the given files, recording a COMMITTED event for each of them
+	 * @param files metadata of the files to be inserted
+	 */
+	@Transactional(Transactional.TxType.REQUIRES_NEW)
+	public void insertFiles(List<FileMetadata> files) {
+		for (FileMetadata file : files) {
+			entityManager.persist(file);
+			eventLog.append(FileEventType.COMMITTED, file);
+		}
+	}
+
+	/**
+	 * Sets the status of the files with the given ids
+	 * @param ids unique ids of the files to be updated
+	 * @param status new status of the files
+	 * @return number of updated files
+	 */
+	@Transactional(Transactional.TxType.REQUIRES_NEW)
+	public int updateStatus(List<Integer> ids, Status status) {
+		return entityManager.createNamedQuery("updateFileStatus")
+				.setParameter("status", status)
+				.setParameter("ids", ids)
+				.executeUpdate();
+	}
+
+	/**
+	 * Returns the files with the given ids
+	 * @param ids unique ids of the files
+	 * @return the files that were found, in no particular order
+	 */
+	public List<FileMetadata> getFilesByIds(Collection<Integer> ids) {
+		return findInChunks("getFilesByIds", "ids", ids, FileMetadata.class);
+	}
+
+	/**
+	 * Returns all the files with the given names
+	 * @param names names of the files
+	 * @return the files that were found, in no particular order
+	 */
+	public List<FileMetadata> getFilesByNames(Collection<String> names) {
+		return findInChunks("getFilesByNames", "names", names, FileMetadata.class);
+	}
+
+	/**
+	 * Returns the names among the given ones for which a file exists
+	 * @param names names of the files
+	 * @return the names of the files that were found
+	 */
+	public Set<String> getExistingNames(Collection<String> names) {
+		return new HashSet<>(findInChunks("getFileNamesIn", "names", names, String.class));
+	}
+
+	/**
+	 * Deletes the given files in the current transaction, recording a DELETED event for each of them
+	 * @param files metadata of the files to be deleted
+	 */
+	@Transactional(Transactional.TxType.MANDATORY)
+	public void deleteFiles(Collection<FileMetadata> files) {
+		for (FileMetadata file : files) {
+			eventLog.append(FileEventType.DELETED, file);
+			entityManager.remove(file);
+		}
+		entityManager.flush();
+	}
+
+	private <T, R> List<R> findInChunks(String queryName, String parameter, Collection<T> values,
+			Class<R> resultClass) {
+		List<R> results = new ArrayList<>();
+		List<T> chunk = new ArrayList<>(QUERY_CHUNK_SIZE);
+		for (T value : values) {
+			chunk.add(value);
+			if (chunk.size() == QUERY_CHUNK_SIZE) {
+				results.addAll(entityManager.createNamedQuery(queryName, resultClass)
+						.setParameter(parameter, chunk).getResultList());
+				chunk = new ArrayList<>(QUERY_CHUNK_SIZE);
+			}
+		}
+		if (!chunk.isEmpty()) {
+			results.addAll(entityManager.createNamedQuery(queryName, resultClass)
+					.setParameter(parameter, chunk).getResultList());
+		}
+		return results;
+	}
+}
@@ -0,0 +1,84 @@
+package io.anandf.fileserver;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.Semaphore;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.transaction.Synchronization;
+import jakarta.transaction.TransactionSynchronizationRegistry;
+
+/**
+ * Serializes the changes to the stored contents of a file name. A lock is taken before the contents
+ * are written or before deciding that they are no longer referenced, and it is held until the
+ * transaction completes, so that an upload has committed its row before a deletion checks for the
+ * remaining rows with the same name, and a deletion has removed the contents before an upload writes
+ * new ones. Names are hashed to a fixed number of locks, which are always taken in the same order.
+ */
+@ApplicationScoped
+public class FileNameLocks {
+
+	private static final int STRIPES = 1024;
+
+	private final Semaphore[] stripes = new Semaphore[STRIPES];
+
+	@Inject
+	private TransactionSynchronizationRegistry transactionRegistry;
+
+	public FileNameLocks() {
+		for (int i = 0; i < STRIPES; i++) {
+			// Semaphores rather than locks, as a transaction may complete on another thread
+			stripes[i] = new Semaphore(1);
+		}
+	}
+
+	/**
+	 * Locks the given file names until the current transaction completes. The locks of a transaction
+	 * are taken by a single call, so that they are always taken in the same order.
+	 * @param names names of the files whose stored contents are changed by the transaction
+	 * @param afterCommit action run while the names are still locked once the transaction has
+	 *                    committed, null if there is nothing to run
+	 */
+	public void lockUntilCompletion(Collection<String> names, Runnable afterCommit) {
+		TreeSet<Integer> indexes = new TreeSet<>();
+		for (String name : names) {
+			indexes.add(Math.floorMod(name.hashCode(), STRIPES));
+		}
+		List<Semaphore> acquired = new ArrayList<>(indexes.size());
+		boolean[] completed = { false };
+		transactionRegistry.registerInterposedSynchronization(new Synchronization() {
+			@Override
+			public void beforeCompletion() {
+			}
+
+			@Override
+			public void afterCompletion(int status) {
+				try {
+					if (status == jakarta.transaction.Status.STATUS_COMMITTED && afterCommit != null) {
+						afterCommit.run();
+					}
+				} finally {
+					synchronized (acquired) {
+						completed[0] = true;
+						acquired.forEach(Semaphore::release);
+						acquired.clear();
+					}
+				}
+			}
+		});
+		for (Integer index : indexes) {
+			stripes[index].acquireUninterruptibly();
+			synchronized (acquired) {
+				if (completed[0]) {
+					// The transaction timed out while waiting
+					stripes[index].release();
+				} else {
+					acquired.add(stripes[index]);
+				}
+			}
+		}
+	}
+}
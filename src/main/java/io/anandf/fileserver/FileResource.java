@@ -4,12 +4,16 @@ package io.anandf.fileserver;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import io.anandf.fileserver.storage.LocalDiskStorage;
 import io.anandf.fileserver.storage.StorageProvider;
 import io.anandf.fileserver.storage.StorageProviderFactory;
+import io.anandf.fileserver.storage.StorageReconciler;
+import jakarta.inject.Inject;
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.PersistenceContext;
 import jakarta.persistence.TypedQuery;
@@ -39,6 +43,7 @@ import jakarta.ws.rs.core.MediaType;
  * <li>POST /v1/files/initiateMultiPartitionUpload: Initiate a multipart upload for the given <code>FileMetadata</code> object. </li>
  * <li>POST /v1/files/uploadMultiPartitionStream: Upload a partition stream for a given partition of the file. </li>
  * <li>POST /v1/files/commitMultiPartitionUpload: Indicates that all the partitions are transfered, and its safe to merge the partitions. </li>
+ * <li>POST /v1/files/batch: Retrieve or delete multiple files by ids or names in a single transaction</li>
  *
  * </ul>
  *
@@ -54,6 +59,18 @@ public class FileResource {
 
 	private StorageProvider storage = StorageProviderFactory.getDefaultStorage();
 
+	@Inject
+	private FileEventLog eventLog;
+
+	@Inject
+	private FileNameLocks locks;
+
+	@Inject
+	private FileBatchProcessor batchProcessor;
+
+	@Inject
+	private StorageReconciler reconciler;
+
 	/**
 	 * Lists all the files that were uploaded to this server
 	 * @return list of <code>FileMetadata</code> objects
@@ -99,7 +116,7 @@ public class FileResource {
 		if (file == null) {
 			throw new NotFoundException("File with id '" + id + "' not found");
 		}
-		entityManager.remove(file);
+		batchProcessor.delete(file);
 	}
 	
 	
@@ -120,7 +137,7 @@ public class FileResource {
 		if (file == null) {
 			throw new NotFoundException("File with id '" + name + "' not found");
 		}
-		entityManager.remove(file);
+		batchProcessor.delete(file);
 	}
 
 	/**
@@ -177,8 +194,12 @@ public class FileResource {
 			if (fileName == null || fileName.isEmpty()) {
 				throw new BadRequestException("Missing mandatory query param 'name'");
 			}
+			AtomicReference<String> checksum = new AtomicReference<>();
+			locks.lockUntilCompletion(List.of(fileName), () -> reconciler.recordChange(fileName, checksum.get()));
 			FileMetadata file = storage.storeFile(fileName, payload);
+			checksum.set(file.getChecksum());
 			entityManager.persist(file);
+			eventLog.append(FileEventType.COMMITTED, file);
 		} catch (IOException ex) {
 			LOG.error("error storing file", ex);
 			throw ex;
@@ -195,17 +216,26 @@ public class FileResource {
 	@Consumes(MediaType.APPLICATION_JSON)
 	@Transactional(Transactional.TxType.REQUIRED)
 	public void initiateMultiPartitionUpload(FileMetadata file) throws IOException {
+		if (file == null || file.getName() == null || file.getName().isEmpty()) {
+			throw new BadRequestException("Missing mandatory field 'name'");
+		}
+		locks.lockUntilCompletion(List.of(file.getName()), () -> reconciler.recordChange(file.getName(), null));
+		storage.prepareForMultipartUpload(file.getName(), file.getPartitionCount(), file.getSize(),
+				file.getChecksum());
 		entityManager.persist(file);
+		eventLog.append(FileEventType.INITIATED, file);
 	}
 	
 	/**
-	 * Uploads the stream of data for a single partition
+	 * Uploads the stream of data for a single partition of an initiated multipart upload
 	 * @param fileName name of the file
 	 * @param partition id of the stream being transfered.
-	 * @param payload
-	 * @throws IOException
+	 * @param payload contents of the partition sent as octet stream media type
+	 * @throws IOException thrown when there is an error storing the partition
+	 * Code - Description
+	 * 204  - partition stored
+	 * 404  - if no initiated upload could be found for the given name
 	 */
-
 	@POST
 	@Path("/uploadMultiPartitionStream")
 	@Consumes(MediaType.APPLICATION_OCTET_STREAM)
@@ -216,21 +246,66 @@ public class FileResource {
 			if (fileName == null || fileName.isEmpty()) {
 				throw new BadRequestException("Missing mandatory query param 'name'");
 			}
-			FileMetadata file = storage.storeFile(fileName, payload);
-			entityManager.persist(file);
+			FileMetadata file = getInitiatedFile(fileName);
+			// Partitions are merged in the order of their names
+			storage.storePartitionForFile(fileName, String.format("%06d", partition), payload);
+			file.setStatus(Status.INPROGRESS);
+			eventLog.append(FileEventType.PARTITION_STORED, file);
 		} catch (IOException ex) {
 			LOG.error("error storing file", ex);
 			throw ex;
 		}
 	}
 	
+	/**
+	 * Merges the uploaded partitions of the file and marks its initiated upload as committed
+	 * @param fileName name of the file
+	 * @throws IOException thrown when there is an error merging the partitions
+	 * Code - Description
+	 * 204  - partitions merged and file committed
+	 * 404  - if no initiated upload could be found for the given name
+	 */
 	@POST
 	@Path("/commitMultiPartitionUpload")
 	@Consumes(MediaType.APPLICATION_JSON)
 	@Transactional(Transactional.TxType.REQUIRED)
 	public void commit(@QueryParam("name")String fileName) throws IOException {
+		if (fileName == null || fileName.isEmpty()) {
+			throw new BadRequestException("Missing mandatory query param 'name'");
+		}
+		FileMetadata file = getInitiatedFile(fileName);
+		String mergedName = LocalDiskStorage.MERGED_PREFIX + fileName;
+		locks.lockUntilCompletion(List.of(fileName, mergedName), () -> reconciler.recordChange(mergedName, null));
 		storage.mergePartitionsForFile(fileName);
+		file.setStatus(Status.COMMITED);
+		eventLog.append(FileEventType.COMMITTED, file);
 	}
 
+	/**
+	 * Performs the requested operation on all the files identified by the ids and names of the batch.
+	 * All the metadata changes are done in a single transaction and flushed as JDBC batches, the stored
+	 * contents of deleted files are removed in parallel once the transaction has committed.
+	 * @param request batch request with the operation and the ids and/or names of the files
+	 * @return one result per requested id followed by one result per requested name
+	 * Code - Description
+	 * 200  - batch processed, the status of every item is reported in its result
+	 * 400  - if the operation is missing or the batch is larger than the allowed size
+	 */
+	@POST
+	@Path("/batch")
+	@Consumes(MediaType.APPLICATION_JSON)
+	@Produces(MediaType.APPLICATION_JSON)
+	@Transactional(Transactional.TxType.REQUIRED)
+	public List<BatchItemResult> batch(BatchRequest request) {
+		return batchProcessor.process(request);
+	}
 
+	private FileMetadata getInitiatedFile(String fileName) {
+		List<FileMetadata> files = entityManager.createNamedQuery("getInitiatedFileByName", FileMetadata.class)
+				.setParameter("name", fileName).setMaxResults(1).getResultList();
+		if (files.isEmpty()) {
+			throw new NotFoundException("Unable to find initiated upload with name " + fileName);
+		}
+		return files.get(0);
+	}
 }
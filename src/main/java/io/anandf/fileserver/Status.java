@@ -1,5 +1,5 @@
 package io.anandf.fileserver;
 
 public enum Status {
-	NONE, INPROGRESS, COMPLETE, COMMITED,
+	NONE, INPROGRESS, COMPLETE, COMMITED, MISSING,
 }
@@ -5,6 +5,8 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
@@ -28,8 +30,20 @@ import io.anandf.fileserver.util.StorageUtils;
 public class LocalDiskStorage implements StorageProvider {
 
 	private static final Logger LOG = LoggerFactory.getLogger(LocalDiskStorage.class.getName());
+
+	/**
+	 * Environment variable with the directory in which the uploaded files are stored
+	 */
+	public static final String STORAGE_PATH_ENV = "DATA_STORAGE_PATH";
+
+	/**
+	 * Prefix of the file in which the partitions of a multipart upload are merged
+	 */
+	public static final String MERGED_PREFIX = "merged_";
 	
 	private String storagePath;
+
+	private boolean temporaryStorage;
 	
 	/**
 	 * Constructor:
@@ -39,7 +53,26 @@ public class LocalDiskStorage implements StorageProvider {
 		// Initialize the storage path to store the uploaded files. If environment variable is not set
 		// use the OS defined directory for storing temporary files. 
 		// NOTE: Do not use temporary directory in Production env.
-		this.storagePath = Optional.ofNullable(System.getenv("DATA_STORAGE_PATH")).orElse(System.getProperty("java.io.tmpdir"));
+		Optional<String> configuredPath = Optional.ofNullable(System.getenv(STORAGE_PATH_ENV));
+		this.storagePath = configuredPath.orElse(System.getProperty("java.io.tmpdir"));
+		this.temporaryStorage = !configuredPath.isPresent();
+	}
+
+	/**
+	 * Returns the directory in which the uploaded files are stored
+	 * @return path of the storage directory
+	 */
+	public String getStoragePath() {
+		return storagePath;
+	}
+
+	/**
+	 * Indicates if the files are stored in the OS temporary directory, which may contain
+	 * files that were not uploaded to this server.
+	 * @return true if the storage directory was not configured
+	 */
+	public boolean isTemporaryStorage() {
+		return temporaryStorage;
 	}
 
 	@Override
@@ -61,7 +94,7 @@ public class LocalDiskStorage implements StorageProvider {
 	@Override
 	public void prepareForMultipartUpload(String fileName, int partitionCount, long fileSize,
 			String checksum) throws IOException {
-		File targetDir = new File(storagePath + "/" + fileName);
+		File targetDir = resolve(fileName);
 		FileUtils.forceMkdir(targetDir);
 	}
 
@@ -70,7 +103,7 @@ public class LocalDiskStorage implements StorageProvider {
 	 */
 	@Override
 	public void storePartitionForFile(String fileName, String partitionId, InputStream stream) throws IOException {
-		String targetFilePath = storagePath + "/" + fileName + "/" + partitionId + "_" + fileName;
+		String targetFilePath = resolve(fileName).getPath() + "/" + partitionId + "_" + fileName;
 		LOG.info("Creating file:" + targetFilePath);
 		writeStreamToFile(targetFilePath, stream);
 	}
@@ -82,7 +115,7 @@ public class LocalDiskStorage implements StorageProvider {
 	public void mergePartitionsForFile(String fileName) throws IOException {
 		
 		File targetDir = new File(storagePath + "/" + fileName);
-		File mergedFile = new File(storagePath + "/" + "merged_" + fileName );
+		File mergedFile = new File(storagePath + "/" + MERGED_PREFIX + fileName );
 		Collection<File> partitionFiles = FileUtils.listFiles(targetDir, new SuffixFileFilter(fileName), null);
 		List<File> sortedPartitionFiles = partitionFiles.stream().sorted().collect(Collectors.toList());
 		StorageUtils.joinFiles(mergedFile, sortedPartitionFiles);
@@ -97,7 +130,48 @@ public class LocalDiskStorage implements StorageProvider {
 		// TODO Auto-generated method stub
 		return false;
 	}
-	
+
+	/**
+	 * Removes the single stream upload, or the partition directory and the merged file of a multipart
+	 * upload, for the given file name.
+	 */
+	@Override
+	public boolean deleteFile(String fileName, boolean multipart) throws IOException {
+		File[] targets = multipart ? new File[] { resolve(fileName), resolve(MERGED_PREFIX + fileName) }
+				: new File[] { resolve(fileName) };
+		boolean deleted = false;
+		for (File target : targets) {
+			if (target.exists()) {
+				LOG.info("Deleting file:" + target.getPath());
+				FileUtils.forceDelete(target);
+				deleted = true;
+			}
+		}
+		return deleted;
+	}
+
+	/**
+	 * Resolves the given file name to an entry directly inside the storage directory, so that a name
+	 * such as <code>..</code> or <code>a/../..</code> can never reach the storage directory itself or
+	 * anything outside of it.
+	 * @param fileName name of the file
+	 * @return the file inside the storage directory
+	 * @throws IOException if the name is empty, a relative reference or contains a separator
+	 */
+	private File resolve(String fileName) throws IOException {
+		if (fileName == null || fileName.isEmpty() || fileName.equals(".") || fileName.equals("..")
+				|| fileName.indexOf('/') >= 0 || fileName.indexOf('\\') >= 0
+				|| fileName.contains(File.separator)) {
+			throw new IOException("Invalid file name '" + fileName + "'");
+		}
+		Path root = Paths.get(storagePath).toAbsolutePath().normalize();
+		Path resolved = root.resolve(fileName).normalize();
+		if (!root.equals(resolved.getParent())) {
+			throw new IOException("Invalid file name '" + fileName + "'");
+		}
+		return resolved.toFile();
+	}
+
 	private long writeStreamToFile(String targetFilePath, InputStream stream) throws IOException {
 		long byteCount = 0;
 		try (FileOutputStream fstream = new FileOutputStream(targetFilePath);
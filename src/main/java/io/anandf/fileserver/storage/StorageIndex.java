@@ -0,0 +1,219 @@
+package io.anandf.fileserver.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compact snapshot of the storage directory, used to avoid rescanning every file at startup.
+ *
+ * The index file starts with a fixed size header, holding the modification time of the
+ * storage directory and the sequence number of the last event of the metadata store when
+ * the snapshot was taken. The header is followed by the gzip compressed entries, with the
+ * size, modification time and checksum of every stored file. The header can be read
+ * without reading the entries.
+ * 
+ * @author anandf
+ *
+ */
+public class StorageIndex {
+
+	private static final Logger LOG = LoggerFactory.getLogger(StorageIndex.class.getName());
+
+	private static final int MAGIC = 0x46534958;
+
+	private static final int VERSION = 2;
+
+	/**
+	 * State of a single stored file, as seen when the snapshot was taken
+	 */
+	public static class Entry {
+
+		private final long size;
+
+		private final long modified;
+
+		private String checksum;
+
+		public Entry(long size, long modified, String checksum) {
+			this.size = size;
+			this.modified = modified;
+			this.checksum = checksum;
+		}
+
+		public long getSize() {
+			return size;
+		}
+
+		public long getModified() {
+			return modified;
+		}
+
+		/**
+		 * @return checksum of the file, or null if it was not calculated
+		 */
+		public String getChecksum() {
+			return checksum;
+		}
+
+		public void setChecksum(String checksum) {
+			this.checksum = checksum;
+		}
+
+		/**
+		 * Checks if the file still has the size and modification time recorded in this entry
+		 * @param size current size of the file
+		 * @param modified current modification time of the file
+		 * @return true if the file is unchanged
+		 */
+		public boolean matches(long size, long modified) {
+			return this.size == size && this.modified == modified;
+		}
+	}
+
+	private final long rootModified;
+
+	private final long lastEventSequence;
+
+	private final Map<String, Entry> entries;
+
+	public StorageIndex(long rootModified, long lastEventSequence, Map<String, Entry> entries) {
+		this.rootModified = rootModified;
+		this.lastEventSequence = lastEventSequence;
+		this.entries = entries;
+	}
+
+	/**
+	 * @return modification time of the storage directory when the snapshot was taken
+	 */
+	public long getRootModified() {
+		return rootModified;
+	}
+
+	/**
+	 * @return sequence number of the last event of the metadata store when the snapshot was taken
+	 */
+	public long getLastEventSequence() {
+		return lastEventSequence;
+	}
+
+	/**
+	 * @return entries of the stored files, keyed by their name in the storage directory
+	 */
+	public Map<String, Entry> getEntries() {
+		return entries;
+	}
+
+	/**
+	 * Reads only the header of the index file
+	 * @param indexFile location of the index file
+	 * @return the index without entries, or null if the file is missing or invalid
+	 */
+	public static StorageIndex readHeader(Path indexFile) {
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+			return readHeader(input, indexFile);
+		} catch (NoSuchFileException ex) {
+			return null;
+		} catch (IOException ex) {
+			LOG.warn("unable to read storage index {}: {}", indexFile, ex.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Reads the header and all the entries of the index file
+	 * @param indexFile location of the index file
+	 * @return the index, or null if the file is missing or invalid
+	 */
+	public static StorageIndex read(Path indexFile) {
+		try (InputStream stream = new BufferedInputStream(Files.newInputStream(indexFile))) {
+			StorageIndex header = readHeader(new DataInputStream(stream), indexFile);
+			if (header == null) {
+				return null;
+			}
+			DataInputStream input = new DataInputStream(new BufferedInputStream(new GZIPInputStream(stream)));
+			int count = input.readInt();
+			Map<String, Entry> entries = new HashMap<>(Math.max(16, (int) (count / 0.75f) + 1));
+			for (int i = 0; i < count; i++) {
+				String name = input.readUTF();
+				long size = input.readLong();
+				long modified = input.readLong();
+				String checksum = input.readUTF();
+				entries.put(name, new Entry(size, modified, checksum.isEmpty() ? null : checksum));
+			}
+			return new StorageIndex(header.getRootModified(), header.getLastEventSequence(), entries);
+		} catch (NoSuchFileException ex) {
+			return null;
+		} catch (IOException ex) {
+			LOG.warn("unable to read storage index {}: {}", indexFile, ex.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Writes the index file. The file is replaced atomically, so that a crash while writing
+	 * leaves the previous snapshot in place.
+	 * @param indexFile location of the index file
+	 * @throws IOException thrown when there is an error writing the file
+	 */
+	public void write(Path indexFile) throws IOException {
+		Path parent = indexFile.toAbsolutePath().getParent();
+		Files.createDirectories(parent);
+		Path tempFile = Files.createTempFile(parent, indexFile.getFileName().toString(), ".tmp");
+		try {
+			try (OutputStream stream = new BufferedOutputStream(Files.newOutputStream(tempFile))) {
+				DataOutputStream header = new DataOutputStream(stream);
+				writeHeader(header, rootModified, lastEventSequence);
+				header.flush();
+				DataOutputStream output = new DataOutputStream(
+						new BufferedOutputStream(new GZIPOutputStream(stream)));
+				output.writeInt(entries.size());
+				for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+					output.writeUTF(entry.getKey());
+					output.writeLong(entry.getValue().getSize());
+					output.writeLong(entry.getValue().getModified());
+					String checksum = entry.getValue().getChecksum();
+					output.writeUTF(checksum == null ? "" : checksum);
+				}
+				output.close();
+			}
+			Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tempFile);
+		}
+	}
+
+	private static StorageIndex readHeader(DataInputStream input, Path indexFile) throws IOException {
+		if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+			LOG.warn("ignoring storage index {} with unknown format", indexFile);
+			return null;
+		}
+		long rootModified = input.readLong();
+		long lastEventSequence = input.readLong();
+		return new StorageIndex(rootModified, lastEventSequence, Collections.emptyMap());
+	}
+
+	private static void writeHeader(DataOutputStream output, long rootModified, long lastEventSequence)
+			throws IOException {
+		output.writeInt(MAGIC);
+		output.writeInt(VERSION);
+		output.writeLong(rootModified);
+		output.writeLong(lastEventSequence);
+	}
+}
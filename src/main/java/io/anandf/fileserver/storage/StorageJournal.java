@@ -0,0 +1,178 @@
+package io.anandf.fileserver.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append only journal of the changes made by this server to the storage directory since the
+ * <code>StorageIndex</code> snapshot was written.
+ *
+ * Every record holds the state of a changed file right after a committed change, followed by
+ * the modification time of the storage directory at that moment. The snapshot and its journals
+ * therefore still describe the storage directory as long as its modification time is the one
+ * of the last record. Every run of the server appends to a new journal, and the journals are
+ * merged into the snapshot by the next run.
+ *
+ * @author anandf
+ *
+ */
+class StorageJournal implements Closeable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(StorageJournal.class.getName());
+
+	private static final String SUFFIX = ".journal.";
+
+	private static final byte PUT = 1;
+
+	private static final byte REMOVE = 2;
+
+	private final DataOutputStream output;
+
+	private StorageJournal(DataOutputStream output) {
+		this.output = output;
+	}
+
+	/**
+	 * Lists the journals of the given index file
+	 * @param indexFile location of the index file
+	 * @return the journals, oldest first
+	 * @throws IOException thrown when the directory of the index file could not be listed
+	 */
+	static List<Path> list(Path indexFile) throws IOException {
+		Path parent = indexFile.toAbsolutePath().getParent();
+		if (!Files.isDirectory(parent)) {
+			return List.of();
+		}
+		String prefix = indexFile.getFileName() + SUFFIX;
+		try (Stream<Path> listing = Files.list(parent)) {
+			return listing.filter(path -> generation(path, prefix) > 0)
+					.sorted(Comparator.comparingLong(path -> generation(path, prefix)))
+					.collect(Collectors.toList());
+		}
+	}
+
+	/**
+	 * Creates a new journal of the given index file, following the existing ones
+	 * @param indexFile location of the index file
+	 * @param journals existing journals of the index file, oldest first
+	 * @return the new journal
+	 * @throws IOException thrown when the journal could not be created
+	 */
+	static StorageJournal create(Path indexFile, List<Path> journals) throws IOException {
+		String prefix = indexFile.getFileName() + SUFFIX;
+		long generation = journals.isEmpty() ? 1 : generation(journals.get(journals.size() - 1), prefix) + 1;
+		Path file = indexFile.toAbsolutePath().resolveSibling(prefix + generation);
+		Files.createDirectories(file.getParent());
+		return new StorageJournal(new DataOutputStream(new BufferedOutputStream(
+				Files.newOutputStream(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE))));
+	}
+
+	/**
+	 * Applies the records of the given journals to the entries of a snapshot. A record cut short
+	 * by a crash is ignored, its change then leaves the storage directory with another modification
+	 * time than the one returned.
+	 * @param journals journals of the snapshot, oldest first
+	 * @param rootModified modification time of the storage directory recorded in the snapshot
+	 * @param entries entries of the snapshot to be updated, or null to only read the modification time
+	 * @return modification time of the storage directory after the last record, or -1 if a journal
+	 *         could not be read
+	 */
+	static long replay(List<Path> journals, long rootModified, Map<String, StorageIndex.Entry> entries) {
+		for (Path journal : journals) {
+			try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(journal)))) {
+				int type;
+				while ((type = input.read()) >= 0) {
+					String name = input.readUTF();
+					StorageIndex.Entry entry = null;
+					if (type == PUT) {
+						long size = input.readLong();
+						long modified = input.readLong();
+						String checksum = input.readUTF();
+						entry = new StorageIndex.Entry(size, modified, checksum.isEmpty() ? null : checksum);
+					} else if (type != REMOVE) {
+						throw new IOException("unknown record type " + type);
+					}
+					long recordRootModified = input.readLong();
+					if (entries != null && entry != null) {
+						entries.put(name, entry);
+					} else if (entries != null) {
+						entries.remove(name);
+					}
+					rootModified = recordRootModified;
+				}
+			} catch (EOFException ex) {
+				LOG.warn("ignoring incomplete record at the end of storage journal {}", journal);
+			} catch (IOException ex) {
+				LOG.warn("unable to read storage journal {}: {}", journal, ex.getMessage());
+				return -1;
+			}
+		}
+		return rootModified;
+	}
+
+	/**
+	 * Records the current state of the given entry of the storage directory. Directories are recorded
+	 * as removed entries, as only their effect on the modification time of the storage directory matters.
+	 * @param root storage directory
+	 * @param name name of the changed entry in the storage directory
+	 * @param checksum checksum of the file if it is known, null otherwise
+	 * @throws IOException thrown when the entry could not be read or the record written
+	 */
+	synchronized void record(Path root, String name, String checksum) throws IOException {
+		BasicFileAttributes attributes = null;
+		try {
+			attributes = Files.readAttributes(root.resolve(name), BasicFileAttributes.class);
+		} catch (NoSuchFileException ex) {
+			// Removed
+		}
+		// Read while holding the lock, so that the last record has the latest modification time
+		long rootModified = Files.getLastModifiedTime(root).toMillis();
+		if (attributes != null && attributes.isRegularFile()) {
+			output.writeByte(PUT);
+			output.writeUTF(name);
+			output.writeLong(attributes.size());
+			output.writeLong(attributes.lastModifiedTime().toMillis());
+			output.writeUTF(checksum == null ? "" : checksum);
+		} else {
+			output.writeByte(REMOVE);
+			output.writeUTF(name);
+		}
+		output.writeLong(rootModified);
+		output.flush();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		output.close();
+	}
+
+	private static long generation(Path path, String prefix) {
+		String name = path.getFileName().toString();
+		if (!name.startsWith(prefix)) {
+			return -1;
+		}
+		try {
+			return Long.parseLong(name.substring(prefix.length()));
+		} catch (NumberFormatException ex) {
+			return -1;
+		}
+	}
+}
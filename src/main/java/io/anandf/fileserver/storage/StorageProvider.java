@@ -26,4 +26,15 @@ public interface StorageProvider {
 	
 	public boolean isFileValid() throws IOException;
 
+	/**
+	 * Removes the contents stored for the given file. The partitions and the merged output are only
+	 * removed for a multipart upload, so that a single stream upload never removes the contents of
+	 * another upload.
+	 * @param fileName name of the file whose contents have to be removed
+	 * @param multipart true if the file was uploaded in partitions
+	 * @return true if any content was found and removed, false if nothing was stored for the file
+	 * @throws IOException thrown when the stored contents could not be removed
+	 */
+	public boolean deleteFile(String fileName, boolean multipart) throws IOException;
+
 }
@@ -0,0 +1,452 @@
+package io.anandf.fileserver.storage;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.anandf.fileserver.FileMetadata;
+import io.anandf.fileserver.FileMetadataStore;
+import io.anandf.fileserver.Status;
+import io.anandf.fileserver.util.Checksum;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.context.Initialized;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+
+/**
+ * Reconciles the files stored on the local disk with the metadata store at startup.
+ *
+ * Files without metadata get their rows rebuilt, and committed files whose contents are
+ * gone are flagged with the MISSING status. The result is saved as a
+ * <code>StorageIndex</code> snapshot, and the changes committed through the server are
+ * appended to a <code>StorageJournal</code> as they happen. On a restart, the storage
+ * directory is only rescanned if it changed in any other way since the snapshot, and
+ * checksums are only recalculated for the files that changed. The startup only checks
+ * the snapshot, the reconciliation runs in the background.
+ * 
+ * @author anandf
+ *
+ */
+@ApplicationScoped
+public class StorageReconciler {
+
+	private static final Logger LOG = LoggerFactory.getLogger(StorageReconciler.class.getName());
+
+	/**
+	 * Number of files inserted or updated in a single transaction
+	 */
+	private static final int BATCH_SIZE = 1000;
+
+	/**
+	 * Number of rows read from the metadata store at once
+	 */
+	private static final int PAGE_SIZE = 10000;
+
+	@Inject
+	@ConfigProperty(name = "storage.reconcile.enabled", defaultValue = "true")
+	private boolean enabled;
+
+	@Inject
+	@ConfigProperty(name = "storage.reconcile.index-file")
+	private String indexFile;
+
+	@Inject
+	private FileMetadataStore store;
+
+	/**
+	 * Runs the reconciliation off the startup thread
+	 */
+	private ExecutorService executor;
+
+	private Path root;
+
+	/**
+	 * Journal of the changes made by this run, null if the storage is not reconciled
+	 */
+	private volatile StorageJournal journal;
+
+	/**
+	 * Constructor used by CDI
+	 */
+	public StorageReconciler() {
+	}
+
+	StorageReconciler(FileMetadataStore store) {
+		this.store = store;
+	}
+
+	void onStartup(@Observes @Initialized(ApplicationScoped.class) Object event) {
+		LocalDiskStorage storage = getReconciledStorage();
+		if (storage == null) {
+			return;
+		}
+		try {
+			start(Paths.get(storage.getStoragePath()), Paths.get(indexFile));
+		} catch (IOException ex) {
+			LOG.error("error reconciling storage with the metadata store", ex);
+		}
+	}
+
+	@PreDestroy
+	void destroy() {
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+		StorageJournal current = journal;
+		journal = null;
+		if (current != null) {
+			try {
+				current.close();
+			} catch (IOException ex) {
+				LOG.warn("unable to close the storage journal: {}", ex.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Records a committed change of the given entry of the storage directory, so that the next
+	 * startup does not have to rescan the storage directory. Nothing is recorded if the storage
+	 * is not reconciled.
+	 * @param name name of the changed entry in the storage directory
+	 * @param checksum checksum of the file if it is known, null otherwise
+	 */
+	public void recordChange(String name, String checksum) {
+		StorageJournal current = journal;
+		if (current == null) {
+			return;
+		}
+		try {
+			current.record(root, name, checksum);
+		} catch (IOException ex) {
+			// Without the record the storage directory no longer matches the snapshot, so the
+			// next startup rescans it. Later records are dropped as well, after a partial one.
+			LOG.warn("unable to record the change of {} in the storage journal: {}", name, ex.getMessage());
+			journal = null;
+			try {
+				current.close();
+			} catch (IOException closeEx) {
+				LOG.warn("unable to close the storage journal: {}", closeEx.getMessage());
+			}
+		}
+	}
+
+	private LocalDiskStorage getReconciledStorage() {
+		StorageProvider storage = StorageProviderFactory.getDefaultStorage();
+		if (!enabled || !(storage instanceof LocalDiskStorage)) {
+			return null;
+		}
+		LocalDiskStorage localStorage = (LocalDiskStorage) storage;
+		if (localStorage.isTemporaryStorage()) {
+			LOG.info("Skipping storage reconciliation, " + LocalDiskStorage.STORAGE_PATH_ENV + " is not set");
+			return null;
+		}
+		return localStorage;
+	}
+
+	/**
+	 * Checks if the snapshot and its journals still describe the storage directory and the metadata
+	 * store, and starts the journal of this run. The reconciliation, or only the merge of the journals
+	 * into the snapshot if nothing else changed, runs in the background.
+	 * @param root storage directory
+	 * @param indexPath location of the snapshot index
+	 * @return completion of the background work
+	 * @throws IOException thrown when the journal could not be created
+	 */
+	Future<?> start(Path root, Path indexPath) throws IOException {
+		if (!Files.isDirectory(root)) {
+			LOG.info("Skipping storage reconciliation, {} does not exist", root);
+			return CompletableFuture.completedFuture(null);
+		}
+		List<Path> journals = StorageJournal.list(indexPath);
+		StorageIndex header = StorageIndex.readHeader(indexPath);
+		// The event log only grows, so a lower sequence means the metadata store was lost or restored
+		boolean current = header != null
+				&& StorageJournal.replay(journals, header.getRootModified(), null) == lastModified(root)
+				&& store.getLastEventSequence() >= header.getLastEventSequence();
+
+		this.root = root;
+		this.journal = StorageJournal.create(indexPath, journals);
+		executor = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "storage-reconciler");
+			thread.setDaemon(true);
+			return thread;
+		});
+		return executor.submit(() -> {
+			try {
+				if (current) {
+					LOG.info("Storage unchanged since the last snapshot");
+					compact(indexPath, journals);
+				} else {
+					reconcile(root, indexPath, journals);
+				}
+			} catch (IOException | RuntimeException ex) {
+				LOG.error("error reconciling storage with the metadata store", ex);
+			}
+		});
+	}
+
+	/**
+	 * Merges the journals of the previous runs into the snapshot, and removes them
+	 */
+	private void compact(Path indexPath, List<Path> journals) throws IOException {
+		if (journals.isEmpty()) {
+			return;
+		}
+		StorageIndex previous = StorageIndex.read(indexPath);
+		if (previous == null) {
+			return;
+		}
+		Map<String, StorageIndex.Entry> entries = previous.getEntries();
+		long rootModified = StorageJournal.replay(journals, previous.getRootModified(), entries);
+		new StorageIndex(rootModified, previous.getLastEventSequence(), entries).write(indexPath);
+		deleteJournals(journals);
+		LOG.info("Merged {} storage journals into the snapshot of {} files", journals.size(), entries.size());
+	}
+
+	/**
+	 * Reconciles the files under the given storage directory with the metadata store, and saves
+	 * the snapshot of the storage directory. Uploads and deletions may be committed meanwhile, so
+	 * rows are only flagged as missing and rebuilt after checking the storage directory again.
+	 * @param root storage directory
+	 * @param indexPath location of the snapshot index
+	 * @param journals journals of the snapshot written by the previous runs, oldest first
+	 * @throws IOException thrown when the storage directory could not be listed or the index written
+	 */
+	void reconcile(Path root, Path indexPath, List<Path> journals) throws IOException {
+		// Taken before the scan, so that files changed while scanning force a rescan next time
+		long rootModified = lastModified(root);
+
+		StorageIndex previous = StorageIndex.read(indexPath);
+		Map<String, StorageIndex.Entry> entries;
+		if (previous != null
+				&& StorageJournal.replay(journals, previous.getRootModified(), previous.getEntries()) == rootModified) {
+			LOG.info("Storage unchanged since the last snapshot, reconciling with {} indexed files",
+					previous.getEntries().size());
+			entries = previous.getEntries();
+		} else {
+			entries = scan(root, previous);
+		}
+
+		// Names in the storage directory that belong to a row, compared page by page
+		Set<String> referenced = new HashSet<>();
+		List<Integer> missing = new ArrayList<>();
+		List<Integer> restored = new ArrayList<>();
+		int missingCount = 0;
+		int restoredCount = 0;
+		int lastId = 0;
+		List<Object[]> page;
+		do {
+			page = store.getFileStates(lastId, PAGE_SIZE);
+			for (Object[] state : page) {
+				lastId = (Integer) state[0];
+				Status status = (Status) state[2];
+				String name = (String) state[1];
+				boolean multipart = (Integer) state[3] > 0;
+				String storedName = getStoredName(root, entries, name, multipart);
+				if (storedName != null) {
+					referenced.add(storedName);
+				}
+				if (status == Status.COMMITED && storedName == null && !isStored(root, name, multipart)) {
+					missing.add(lastId);
+				} else if (status == Status.MISSING && storedName != null) {
+					restored.add(lastId);
+				}
+			}
+			missingCount += updateStatus(missing, Status.MISSING);
+			restoredCount += updateStatus(restored, Status.COMMITED);
+		} while (page.size() == PAGE_SIZE);
+
+		List<String> unreferenced = entries.keySet().stream()
+				.filter(name -> !referenced.contains(name))
+				.collect(Collectors.toList());
+		unreferenced.parallelStream().forEach(name -> calculateChecksum(root, name, entries.get(name)));
+
+		int rebuiltCount = 0;
+		List<FileMetadata> files = new ArrayList<>(BATCH_SIZE);
+		for (String storedName : unreferenced) {
+			files.add(rebuildFile(root, storedName, entries.get(storedName)));
+			if (files.size() == BATCH_SIZE) {
+				rebuiltCount += insertFiles(root, files);
+				files = new ArrayList<>(BATCH_SIZE);
+			}
+		}
+		if (!files.isEmpty()) {
+			rebuiltCount += insertFiles(root, files);
+		}
+
+		if (missingCount > 0) {
+			LOG.warn("Flagged {} files as missing, their contents are not present under {}", missingCount, root);
+		}
+		LOG.info("Reconciled {} stored files: {} rows rebuilt, {} rows missing, {} rows restored",
+				entries.size(), rebuiltCount, missingCount, restoredCount);
+
+		new StorageIndex(rootModified, store.getLastEventSequence(), entries).write(indexPath);
+		deleteJournals(journals);
+	}
+
+	/**
+	 * Inserts the given rebuilt files, except the ones that got a row or were removed since the scan
+	 * @return number of inserted files
+	 */
+	private int insertFiles(Path root, List<FileMetadata> files) {
+		Set<String> existing = store.getExistingNames(
+				files.stream().map(FileMetadata::getName).collect(Collectors.toList()));
+		List<FileMetadata> inserted = files.stream()
+				.filter(file -> !existing.contains(file.getName()))
+				.filter(file -> isStored(root, file.getName(), file.getPartitionCount() > 0))
+				.collect(Collectors.toList());
+		if (!inserted.isEmpty()) {
+			store.insertFiles(inserted);
+		}
+		return inserted.size();
+	}
+
+	/**
+	 * Checks the storage directory itself for the contents of the given file
+	 */
+	private static boolean isStored(Path root, String name, boolean multipart) {
+		if (Files.isRegularFile(root.resolve(name))) {
+			return true;
+		}
+		return Files.isRegularFile(root.resolve(LocalDiskStorage.MERGED_PREFIX + name))
+				&& (multipart || Files.isDirectory(root.resolve(name)));
+	}
+
+	private static void deleteJournals(List<Path> journals) throws IOException {
+		for (Path journal : journals) {
+			Files.deleteIfExists(journal);
+		}
+	}
+
+	/**
+	 * Returns the name in the storage directory of the contents of the given file. The merged
+	 * output of a multipart upload is only used for rows of multipart uploads, so that a single
+	 * stream upload whose name starts with the merged prefix keeps its own contents.
+	 * @return the name in the storage directory, or null if the contents are not present
+	 */
+	private static String getStoredName(Path root, Map<String, StorageIndex.Entry> entries, String name,
+			boolean multipart) {
+		if (entries.containsKey(name)) {
+			return name;
+		}
+		String mergedName = LocalDiskStorage.MERGED_PREFIX + name;
+		if (entries.containsKey(mergedName) && (multipart || Files.isDirectory(root.resolve(name)))) {
+			return mergedName;
+		}
+		return null;
+	}
+
+	/**
+	 * Creates the metadata of a stored file without a row. A merged file is only rebuilt as a
+	 * multipart upload if its partition directory is still present.
+	 */
+	private static FileMetadata rebuildFile(Path root, String storedName, StorageIndex.Entry entry) {
+		FileMetadata file = new FileMetadata();
+		file.setName(storedName);
+		if (storedName.startsWith(LocalDiskStorage.MERGED_PREFIX)) {
+			Path partitionDir = root.resolve(storedName.substring(LocalDiskStorage.MERGED_PREFIX.length()));
+			if (Files.isDirectory(partitionDir)) {
+				file.setName(partitionDir.getFileName().toString());
+				file.setPartitionCount(countPartitions(partitionDir));
+			}
+		}
+		file.setSize(entry.getSize());
+		file.setChecksum(entry.getChecksum());
+		file.setStatus(Status.COMMITED);
+		return file;
+	}
+
+	private static int countPartitions(Path partitionDir) {
+		try (Stream<Path> partitions = Files.list(partitionDir)) {
+			return (int) Math.max(1, partitions.count());
+		} catch (IOException ex) {
+			LOG.warn("unable to list partitions of {}: {}", partitionDir, ex.getMessage());
+			return 1;
+		}
+	}
+
+	/**
+	 * Lists the storage directory and reads the attributes of the files in parallel. The checksums
+	 * of the files that did not change since the previous snapshot are reused.
+	 */
+	private Map<String, StorageIndex.Entry> scan(Path root, StorageIndex previous) throws IOException {
+		List<Path> paths;
+		try (Stream<Path> listing = Files.list(root)) {
+			paths = listing.collect(Collectors.toList());
+		}
+		Map<String, StorageIndex.Entry> indexed = previous == null ? Collections.emptyMap() : previous.getEntries();
+		Map<String, StorageIndex.Entry> entries = new ConcurrentHashMap<>(Math.max(16, paths.size()));
+		paths.parallelStream().forEach(path -> {
+			String name = path.getFileName().toString();
+			// Hidden files are not uploads; partition directories belong to uploads in progress
+			if (name.startsWith(".")) {
+				return;
+			}
+			BasicFileAttributes attributes;
+			try {
+				attributes = Files.readAttributes(path, BasicFileAttributes.class);
+			} catch (IOException ex) {
+				LOG.warn("unable to read attributes of {}: {}", path, ex.getMessage());
+				return;
+			}
+			if (!attributes.isRegularFile()) {
+				return;
+			}
+			long size = attributes.size();
+			long modified = attributes.lastModifiedTime().toMillis();
+			StorageIndex.Entry entry = indexed.get(name);
+			entries.put(name, entry != null && entry.matches(size, modified) ? entry
+					: new StorageIndex.Entry(size, modified, null));
+		});
+		LOG.info("Scanned {} files under {}", entries.size(), root);
+		return entries;
+	}
+
+	private static void calculateChecksum(Path root, String storedName, StorageIndex.Entry entry) {
+		if (entry.getChecksum() != null) {
+			return;
+		}
+		try {
+			entry.setChecksum(Checksum.calculateChecksum(root.resolve(storedName).toString()));
+		} catch (IOException ex) {
+			LOG.warn("unable to calculate checksum of {}: {}", storedName, ex.getMessage());
+		}
+	}
+
+	/**
+	 * Sets the status of the given files in chunks, and clears the list
+	 * @return number of updated files
+	 */
+	private int updateStatus(List<Integer> ids, Status status) {
+		int updated = ids.size();
+		for (int start = 0; start < ids.size(); start += BATCH_SIZE) {
+			store.updateStatus(ids.subList(start, Math.min(start + BATCH_SIZE, ids.size())), status);
+		}
+		ids.clear();
+		return updated;
+	}
+
+	private static long lastModified(Path path) throws IOException {
+		return Files.getLastModifiedTime(path).toMillis();
+	}
+}
@@ -1,2 +0,0 @@
-INSERT INTO FILE(NAME, CKSUM, SIZE, PARTITION_COUNT, STATUS) VALUES('test', '', 0, 1, 0);
-INSERT INTO FILE(NAME, CKSUM, SIZE, PARTITION_COUNT, STATUS) VALUES('test3', '', 0, 1, 3);
@@ -0,0 +1,301 @@
+package io.anandf.fileserver;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.anandf.fileserver.storage.StorageProvider;
+import io.anandf.fileserver.storage.StorageReconciler;
+
+class FileBatchProcessorTest {
+
+	private InMemoryStore store;
+
+	private RecordingLocks locks;
+
+	private RecordingStorage storage;
+
+	private FileBatchProcessor processor;
+
+	@BeforeEach
+	void setUp() {
+		store = new InMemoryStore();
+		locks = new RecordingLocks();
+		storage = new RecordingStorage();
+		processor = new FileBatchProcessor(store, locks, new StorageReconciler(), storage);
+	}
+
+	@Test
+	void testDeletesRepeatedIdsAndNamesOnce() {
+		int a = store.add("a.txt", 0);
+		int b = store.add("b.txt", 0);
+
+		List<BatchItemResult> results = processor.process(request(BatchOperation.DELETE,
+				List.of(a, a, b), List.of("a.txt", "a.txt")));
+		locks.commit();
+
+		assertThat(statuses(results), is(List.of(204, 204, 204)));
+		assertThat(results.get(2).getName(), is("a.txt"));
+		assertThat(store.deletes, is(2));
+		assertThat(store.names(), is(List.of()));
+		assertThat(storage.deleted, is(Map.of("a.txt", false, "b.txt", false)));
+	}
+
+	@Test
+	void testKeepsContentsSharedByRemainingRows() {
+		int first = store.add("a.txt", 0);
+		store.add("a.txt", 0);
+
+		List<BatchItemResult> results = processor.process(request(BatchOperation.DELETE, List.of(first), List.of()));
+		locks.commit();
+
+		assertThat(statuses(results), is(List.of(204)));
+		assertThat(store.names(), is(List.of("a.txt")));
+		assertThat(storage.deleted, is(Map.of()));
+	}
+
+	@Test
+	void testDeletingANameRemovesAllItsRows() {
+		store.add("a.txt", 0);
+		store.add("a.txt", 0);
+
+		List<BatchItemResult> results = processor.process(request(BatchOperation.DELETE, List.of(), List.of("a.txt")));
+		locks.commit();
+
+		assertThat(statuses(results), is(List.of(204)));
+		assertThat(store.names(), is(List.of()));
+		assertThat(storage.deleted, is(Map.of("a.txt", false)));
+	}
+
+	@Test
+	void testReportsMissingItems() {
+		int a = store.add("a.txt", 0);
+
+		List<BatchItemResult> results = processor.process(request(BatchOperation.DELETE,
+				List.of(99, a), List.of("missing.txt")));
+		locks.commit();
+
+		assertThat(statuses(results), is(List.of(404, 204, 404)));
+		assertThat(results.get(0).getMessage(), is("File with id '99' not found"));
+		assertThat(results.get(2).getMessage(), is("File with name 'missing.txt' not found"));
+		assertThat(storage.deleted, is(Map.of("a.txt", false)));
+	}
+
+	@Test
+	void testReportsStorageFailures() {
+		int a = store.add("a.txt", 0);
+		store.add("b.txt", 0);
+		storage.failing.add("b.txt");
+
+		List<BatchItemResult> results = processor.process(request(BatchOperation.DELETE, List.of(a), List.of("b.txt")));
+		locks.commit();
+
+		assertThat(statuses(results), is(List.of(204, 500)));
+		assertThat(results.get(1).getMessage().startsWith("Metadata deleted, but unable to delete stored contents"),
+				is(true));
+		assertThat(store.names(), is(List.of()));
+	}
+
+	@Test
+	void testDeletesContentsOnlyAfterCommit() {
+		store.add("a.txt", 0);
+		store.add("b.txt", 0);
+
+		processor.process(request(BatchOperation.DELETE, List.of(), List.of("a.txt")));
+		assertThat(storage.deleted, is(Map.of()));
+		locks.rollback();
+		assertThat(storage.deleted, is(Map.of()));
+
+		processor.process(request(BatchOperation.DELETE, List.of(), List.of("b.txt")));
+		assertThat(storage.deleted, is(Map.of()));
+		locks.commit();
+		assertThat(storage.deleted, is(Map.of("b.txt", false)));
+	}
+
+	@Test
+	void testKeepsContentsOfUploadCommittedWhileWaitingForTheLock() {
+		store.add("a.txt", 0);
+		// An upload with the same name commits its row while the deletion waits for the name
+		locks.onLock = () -> store.add("a.txt", 0);
+
+		processor.process(request(BatchOperation.DELETE, List.of(), List.of("a.txt")));
+		locks.commit();
+
+		assertThat(locks.locked, is(Set.of("a.txt")));
+		assertThat(store.names(), is(List.of("a.txt")));
+		assertThat(storage.deleted, is(Map.of()));
+	}
+
+	@Test
+	void testRemovesMergedContentsOnlyForMultipartUploads() {
+		store.add("parts.bin", 3);
+		store.add("single.bin", 0);
+		store.add("kept.bin", 2);
+		store.add("merged_kept.bin", 0);
+
+		processor.process(request(BatchOperation.DELETE, List.of(),
+				List.of("parts.bin", "single.bin", "kept.bin")));
+		locks.commit();
+
+		assertThat(storage.deleted, is(Map.of("parts.bin", true, "single.bin", false, "kept.bin", false)));
+		assertThat(store.names(), is(List.of("merged_kept.bin")));
+	}
+
+	@Test
+	void testGetsFilesByIdsAndNames() {
+		int a = store.add("a.txt", 0);
+
+		List<BatchItemResult> results = processor.process(request(BatchOperation.GET,
+				List.of(a, 99), List.of("a.txt", "missing.txt")));
+
+		assertThat(statuses(results), is(List.of(200, 404, 200, 404)));
+		assertThat(results.get(0).getFile().getName(), is("a.txt"));
+		assertThat(results.get(1).getFile(), nullValue());
+		assertThat(store.names(), is(List.of("a.txt")));
+		assertThat(locks.pending.size(), is(0));
+	}
+
+	private static BatchRequest request(BatchOperation operation, List<Integer> ids, List<String> names) {
+		BatchRequest request = new BatchRequest();
+		request.setOperation(operation);
+		request.setIds(ids);
+		request.setNames(names);
+		return request;
+	}
+
+	private static List<Integer> statuses(List<BatchItemResult> results) {
+		return results.stream().map(BatchItemResult::getStatus).collect(Collectors.toList());
+	}
+
+	private static class InMemoryStore extends FileMetadataStore {
+
+		private final TreeMap<Integer, FileMetadata> rows = new TreeMap<>();
+
+		private int nextId = 1;
+
+		private int deletes;
+
+		int add(String name, int partitionCount) {
+			FileMetadata file = new FileMetadata();
+			file.setName(name);
+			file.setStatus(Status.COMMITED);
+			file.setPartitionCount(partitionCount);
+			file.setId(nextId++);
+			rows.put(file.getId(), file);
+			return file.getId();
+		}
+
+		List<String> names() {
+			return rows.values().stream().map(FileMetadata::getName).sorted().collect(Collectors.toList());
+		}
+
+		@Override
+		public List<FileMetadata> getFilesByIds(Collection<Integer> ids) {
+			return ids.stream().map(rows::get).filter(file -> file != null).collect(Collectors.toList());
+		}
+
+		@Override
+		public List<FileMetadata> getFilesByNames(Collection<String> names) {
+			return rows.values().stream().filter(file -> names.contains(file.getName())).collect(Collectors.toList());
+		}
+
+		@Override
+		public Set<String> getExistingNames(Collection<String> names) {
+			return rows.values().stream().map(FileMetadata::getName).filter(names::contains)
+					.collect(Collectors.toSet());
+		}
+
+		@Override
+		public void deleteFiles(Collection<FileMetadata> files) {
+			for (FileMetadata file : files) {
+				rows.remove(file.getId());
+				deletes++;
+			}
+		}
+	}
+
+	private static class RecordingLocks extends FileNameLocks {
+
+		private final List<Runnable> pending = new ArrayList<>();
+
+		private final Set<String> locked = new HashSet<>();
+
+		private Runnable onLock;
+
+		@Override
+		public void lockUntilCompletion(Collection<String> names, Runnable afterCommit) {
+			locked.addAll(names);
+			if (onLock != null) {
+				onLock.run();
+			}
+			if (afterCommit != null) {
+				pending.add(afterCommit);
+			}
+		}
+
+		void commit() {
+			pending.forEach(Runnable::run);
+			pending.clear();
+		}
+
+		void rollback() {
+			pending.clear();
+		}
+	}
+
+	private static class RecordingStorage implements StorageProvider {
+
+		private final Map<String, Boolean> deleted = new LinkedHashMap<>();
+
+		private final Set<String> failing = new HashSet<>();
+
+		@Override
+		public synchronized boolean deleteFile(String fileName, boolean multipart) throws IOException {
+			if (failing.contains(fileName)) {
+				throw new IOException("disk failure");
+			}
+			deleted.put(fileName, multipart);
+			return true;
+		}
+
+		@Override
+		public FileMetadata storeFile(String fileName, InputStream stream) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void prepareForMultipartUpload(String fileName, int partitionCount, long fileSize, String checksum) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void storePartitionForFile(String fileName, String partitionId, InputStream stream) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void mergePartitionsForFile(String fileName) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public boolean isFileValid() {
+			return false;
+		}
+	}
+}
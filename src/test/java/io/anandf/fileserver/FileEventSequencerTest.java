@@ -0,0 +1,110 @@
+package io.anandf.fileserver;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class FileEventSequencerTest {
+
+	/**
+	 * Sequence numbers of the events visible in the store, that is, of committed transactions
+	 */
+	private final NavigableSet<Long> store = new ConcurrentSkipListSet<>();
+
+	private FileEventSequencer sequencer;
+
+	private ExecutorService executor;
+
+	@BeforeEach
+	void setUp() {
+		sequencer = new FileEventSequencer(0);
+		executor = Executors.newFixedThreadPool(2);
+	}
+
+	@AfterEach
+	void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	void testOpenTransactionHidesLaterCommittedEvents() throws Exception {
+		sequencer.allocate(() -> 1);
+		sequencer.allocate(() -> 2);
+		commit(2);
+
+		assertThat(read(0, 0).get(5, TimeUnit.SECONDS), is(Collections.emptyList()));
+
+		commit(1);
+		assertThat(read(0, 0).get(5, TimeUnit.SECONDS), is(Arrays.asList(1L, 2L)));
+	}
+
+	@Test
+	void testWaitingReaderIsResumedByCommit() throws Exception {
+		CompletableFuture<List<Long>> events = read(0, 10000);
+		Thread.sleep(100);
+		assertThat(events.isDone(), is(false));
+
+		sequencer.allocate(() -> 1);
+		commit(1);
+		assertThat(events.get(500, TimeUnit.MILLISECONDS), is(Collections.singletonList(1L)));
+	}
+
+	@Test
+	void testRollbackReleasesReaders() throws Exception {
+		sequencer.allocate(() -> 1);
+		sequencer.allocate(() -> 2);
+		commit(2);
+
+		CompletableFuture<List<Long>> events = read(0, 10000);
+		Thread.sleep(100);
+		assertThat(events.isDone(), is(false));
+
+		// The rolled back event never reaches the store
+		sequencer.complete(Collections.singletonList(1L));
+		assertThat(events.get(500, TimeUnit.MILLISECONDS), is(Collections.singletonList(2L)));
+	}
+
+	@Test
+	void testEventAllocatedAfterReadStartIsNotSkipped() throws Exception {
+		sequencer.allocate(() -> 1);
+		commit(1);
+		sequencer.allocate(() -> 2);
+		sequencer.allocate(() -> 3);
+		commit(3);
+
+		assertThat(read(0, 0).get(5, TimeUnit.SECONDS), is(Collections.singletonList(1L)));
+		assertThat(read(1, 0).get(5, TimeUnit.SECONDS), is(Collections.emptyList()));
+	}
+
+	@Test
+	void testReadTimesOutWithoutEvents() throws Exception {
+		assertThat(read(0, 100).get(5, TimeUnit.SECONDS), is(Collections.emptyList()));
+	}
+
+	private void commit(long sequence) {
+		store.add(sequence);
+		sequencer.complete(Collections.singletonList(sequence));
+	}
+
+	private CompletableFuture<List<Long>> read(long after, long timeoutMillis) {
+		return sequencer.read(after, timeoutMillis,
+				(from, before) -> store.stream()
+						.filter(sequence -> sequence > from && sequence < before)
+						.collect(Collectors.toList()),
+				executor);
+	}
+}
@@ -0,0 +1,95 @@
+package io.anandf.fileserver.storage;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class StorageIndexTest {
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	void testWriteAndReadRoundTrip() throws Exception {
+		Path indexFile = tempDir.resolve("storage.idx");
+		Map<String, StorageIndex.Entry> entries = new HashMap<>();
+		entries.put("a.txt", new StorageIndex.Entry(10, 1000, "0cc175b9c0f1b6a831c399e269772661"));
+		entries.put("merged_b.txt", new StorageIndex.Entry(20, 2000, null));
+		new StorageIndex(12345, 7, entries).write(indexFile);
+
+		StorageIndex index = StorageIndex.read(indexFile);
+		assertThat(index.getRootModified(), is(12345L));
+		assertThat(index.getLastEventSequence(), is(7L));
+		assertThat(index.getEntries().size(), is(2));
+		StorageIndex.Entry a = index.getEntries().get("a.txt");
+		assertThat(a.getSize(), is(10L));
+		assertThat(a.getModified(), is(1000L));
+		assertThat(a.getChecksum(), is("0cc175b9c0f1b6a831c399e269772661"));
+		StorageIndex.Entry b = index.getEntries().get("merged_b.txt");
+		assertThat(b.getSize(), is(20L));
+		assertThat(b.getChecksum(), nullValue());
+	}
+
+	@Test
+	void testReadHeaderSkipsEntries() throws Exception {
+		Path indexFile = tempDir.resolve("storage.idx");
+		Map<String, StorageIndex.Entry> entries = new HashMap<>();
+		entries.put("a.txt", new StorageIndex.Entry(10, 1000, null));
+		new StorageIndex(42, 1, entries).write(indexFile);
+
+		StorageIndex header = StorageIndex.readHeader(indexFile);
+		assertThat(header.getRootModified(), is(42L));
+		assertThat(header.getLastEventSequence(), is(1L));
+		assertThat(header.getEntries().isEmpty(), is(true));
+	}
+
+	@Test
+	void testWriteReplacesPreviousIndex() throws Exception {
+		Path indexFile = tempDir.resolve("storage.idx");
+		Map<String, StorageIndex.Entry> entries = new HashMap<>();
+		entries.put("a.txt", new StorageIndex.Entry(10, 1000, null));
+		new StorageIndex(1, 1, entries).write(indexFile);
+		new StorageIndex(2, 0, new HashMap<>()).write(indexFile);
+
+		StorageIndex index = StorageIndex.read(indexFile);
+		assertThat(index.getRootModified(), is(2L));
+		assertThat(index.getEntries().isEmpty(), is(true));
+		try (Stream<Path> files = Files.list(tempDir)) {
+			assertThat(files.count(), is(1L));
+		}
+	}
+
+	@Test
+	void testMissingOrInvalidIndexIsIgnored() throws Exception {
+		Path indexFile = tempDir.resolve("storage.idx");
+		assertThat(StorageIndex.readHeader(indexFile), nullValue());
+		assertThat(StorageIndex.read(indexFile), nullValue());
+
+		Files.write(indexFile, new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+		assertThat(StorageIndex.readHeader(indexFile), nullValue());
+		assertThat(StorageIndex.read(indexFile), nullValue());
+	}
+
+	@Test
+	void testTruncatedEntriesAreIgnored() throws Exception {
+		Path indexFile = tempDir.resolve("storage.idx");
+		Map<String, StorageIndex.Entry> entries = new HashMap<>();
+		entries.put("a.txt", new StorageIndex.Entry(10, 1000, "checksum"));
+		new StorageIndex(1, 1, entries).write(indexFile);
+		byte[] content = Files.readAllBytes(indexFile);
+		Files.write(indexFile, Arrays.copyOf(content, content.length - 10));
+
+		assertThat(StorageIndex.readHeader(indexFile).getRootModified(), is(1L));
+		assertThat(StorageIndex.read(indexFile), nullValue());
+	}
+}
@@ -0,0 +1,282 @@
+package io.anandf.fileserver.storage;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.anandf.fileserver.FileMetadata;
+import io.anandf.fileserver.FileMetadataStore;
+import io.anandf.fileserver.Status;
+
+class StorageReconcilerTest {
+
+	@TempDir
+	Path tempDir;
+
+	private Path root;
+
+	private Path indexFile;
+
+	private InMemoryStore store;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		root = Files.createDirectory(tempDir.resolve("storage"));
+		indexFile = tempDir.resolve("storage.idx");
+		store = new InMemoryStore();
+	}
+
+	@Test
+	void testRebuildsRowsOfStoredFiles() throws Exception {
+		write("a.txt", "a");
+		write("b.txt", "bb");
+
+		run(store);
+
+		assertThat(store.names(), is(List.of("a.txt", "b.txt")));
+		FileMetadata a = store.byName("a.txt");
+		assertThat(a.getStatus(), is(Status.COMMITED));
+		assertThat(a.getSize(), is(1L));
+		assertThat(a.getChecksum(), is("0cc175b9c0f1b6a831c399e269772661"));
+		assertThat(StorageIndex.read(indexFile).getLastEventSequence(), is(2L));
+	}
+
+	@Test
+	void testFlagsMissingAndRestoresFiles() throws Exception {
+		store.add("gone.txt", Status.COMMITED, 0);
+
+		run(store);
+		assertThat(store.byName("gone.txt").getStatus(), is(Status.MISSING));
+
+		write("gone.txt", "back");
+		touch(root);
+		run(store);
+		assertThat(store.byName("gone.txt").getStatus(), is(Status.COMMITED));
+		assertThat(store.names(), is(List.of("gone.txt")));
+	}
+
+	@Test
+	void testSkipsScanWhenStorageIsUnchanged() throws Exception {
+		write("a.txt", "a");
+		run(store);
+
+		// Remove the file behind the back of the snapshot, keeping the directory time
+		FileTime modified = Files.getLastModifiedTime(root);
+		Files.delete(root.resolve("a.txt"));
+		Files.setLastModifiedTime(root, modified);
+
+		run(store);
+		assertThat(store.byName("a.txt").getStatus(), is(Status.COMMITED));
+	}
+
+	@Test
+	void testRescansWhenStorageChanged() throws Exception {
+		write("a.txt", "a");
+		run(store);
+
+		Files.delete(root.resolve("a.txt"));
+		write("b.txt", "b");
+		touch(root);
+
+		run(store);
+		assertThat(store.byName("a.txt").getStatus(), is(Status.MISSING));
+		assertThat(store.byName("b.txt").getStatus(), is(Status.COMMITED));
+	}
+
+	@Test
+	void testRebuildsLostMetadataFromSnapshot() throws Exception {
+		write("a.txt", "a");
+		write("b.txt", "b");
+		run(store);
+
+		InMemoryStore emptyStore = new InMemoryStore();
+		run(emptyStore);
+		assertThat(emptyStore.names(), is(List.of("a.txt", "b.txt")));
+		assertThat(emptyStore.byName("b.txt").getChecksum(), notNullValue());
+	}
+
+	@Test
+	void testUploadWithMergedPrefixKeepsItsName() throws Exception {
+		write("report", "plain");
+		write(LocalDiskStorage.MERGED_PREFIX + "report", "upload");
+
+		run(store);
+		assertThat(store.names(), is(List.of("merged_report", "report")));
+		assertThat(store.byName("merged_report").getPartitionCount(), is(0));
+
+		touch(root);
+		run(store);
+		assertThat(store.byName("merged_report").getStatus(), is(Status.COMMITED));
+		assertThat(store.byName("report").getStatus(), is(Status.COMMITED));
+		assertThat(store.names().size(), is(2));
+	}
+
+	@Test
+	void testMergedFileOfMultipartUpload() throws Exception {
+		Path partitions = Files.createDirectory(root.resolve("big"));
+		Files.write(partitions.resolve("0_big"), "par".getBytes(StandardCharsets.UTF_8));
+		Files.write(partitions.resolve("1_big"), "ts".getBytes(StandardCharsets.UTF_8));
+		write(LocalDiskStorage.MERGED_PREFIX + "big", "parts");
+
+		run(store);
+		assertThat(store.names(), is(List.of("big")));
+		assertThat(store.byName("big").getPartitionCount(), is(2));
+		assertThat(store.byName("big").getSize(), is(5L));
+
+		touch(root);
+		run(store);
+		assertThat(store.byName("big").getStatus(), is(Status.COMMITED));
+		assertThat(store.names().size(), is(1));
+	}
+
+	@Test
+	void testJournalKeepsSnapshotCurrent() throws Exception {
+		write("a.txt", "a");
+		write("b.txt", "b");
+		run(store);
+
+		// Upload and delete through the server
+		StorageReconciler reconciler = new StorageReconciler(store);
+		reconciler.start(root, indexFile).get();
+		write("c.txt", "c");
+		store.add("c.txt", Status.COMMITED, 0);
+		reconciler.recordChange("c.txt", "4a8a08f09d37b73795649038408b5f33");
+		Files.delete(root.resolve("b.txt"));
+		store.remove("b.txt");
+		reconciler.recordChange("b.txt", null);
+		reconciler.destroy();
+		assertThat(StorageJournal.list(indexFile).size(), is(1));
+
+		run(store);
+		StorageIndex index = StorageIndex.read(indexFile);
+		assertThat(index.getRootModified(), is(Files.getLastModifiedTime(root).toMillis()));
+		assertThat(index.getEntries().keySet(), is(Set.of("a.txt", "c.txt")));
+		assertThat(index.getEntries().get("c.txt").getChecksum(), is("4a8a08f09d37b73795649038408b5f33"));
+		assertThat(StorageJournal.list(indexFile).size(), is(1));
+
+		// Remove a file behind the back of the snapshot, keeping the directory time
+		FileTime modified = Files.getLastModifiedTime(root);
+		Files.delete(root.resolve("c.txt"));
+		Files.setLastModifiedTime(root, modified);
+
+		run(store);
+		assertThat(store.byName("c.txt").getStatus(), is(Status.COMMITED));
+		assertThat(store.names(), is(List.of("a.txt", "c.txt")));
+	}
+
+	@Test
+	void testRescansWhenChangeWasNotRecorded() throws Exception {
+		write("a.txt", "a");
+		run(store);
+
+		StorageReconciler reconciler = new StorageReconciler(store);
+		reconciler.start(root, indexFile).get();
+		write("b.txt", "b");
+		reconciler.recordChange("b.txt", null);
+		Files.delete(root.resolve("a.txt"));
+		touch(root);
+		reconciler.destroy();
+
+		run(store);
+		assertThat(store.byName("a.txt").getStatus(), is(Status.MISSING));
+		assertThat(store.byName("b.txt").getStatus(), is(Status.COMMITED));
+	}
+
+	private void run(InMemoryStore metadataStore) throws Exception {
+		StorageReconciler reconciler = new StorageReconciler(metadataStore);
+		reconciler.start(root, indexFile).get();
+		reconciler.destroy();
+	}
+
+	private void write(String name, String content) throws Exception {
+		Files.write(root.resolve(name), content.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static void touch(Path path) throws Exception {
+		Files.setLastModifiedTime(path, FileTime.fromMillis(Files.getLastModifiedTime(path).toMillis() + 1000));
+	}
+
+	/**
+	 * Metadata store keeping the rows in memory, ordered by id
+	 */
+	private static class InMemoryStore extends FileMetadataStore {
+
+		private final TreeMap<Integer, FileMetadata> rows = new TreeMap<>();
+
+		private int nextId = 1;
+
+		private long lastEventSequence;
+
+		void add(String name, Status status, int partitionCount) {
+			FileMetadata file = new FileMetadata();
+			file.setName(name);
+			file.setStatus(status);
+			file.setPartitionCount(partitionCount);
+			file.setId(nextId++);
+			rows.put(file.getId(), file);
+		}
+
+		void remove(String name) {
+			rows.values().removeIf(file -> file.getName().equals(name));
+			lastEventSequence++;
+		}
+
+		List<String> names() {
+			return rows.values().stream().map(FileMetadata::getName).sorted().collect(Collectors.toList());
+		}
+
+		FileMetadata byName(String name) {
+			return rows.values().stream().filter(file -> file.getName().equals(name)).findFirst().orElse(null);
+		}
+
+		@Override
+		public long getLastEventSequence() {
+			return lastEventSequence;
+		}
+
+		@Override
+		public Set<String> getExistingNames(Collection<String> names) {
+			return rows.values().stream().map(FileMetadata::getName).filter(names::contains)
+					.collect(Collectors.toSet());
+		}
+
+		@Override
+		public List<Object[]> getFileStates(int afterId, int limit) {
+			return rows.tailMap(afterId, false).values().stream()
+					.limit(limit)
+					.map(file -> new Object[] { file.getId(), file.getName(), file.getStatus(), file.getPartitionCount() })
+					.collect(Collectors.toList());
+		}
+
+		@Override
+		public void insertFiles(List<FileMetadata> files) {
+			for (FileMetadata file : files) {
+				file.setId(nextId++);
+				rows.put(file.getId(), file);
+				lastEventSequence++;
+			}
+		}
+
+		@Override
+		public int updateStatus(List<Integer> ids, Status status) {
+			for (Integer id : ids) {
+				rows.get(id).setStatus(status);
+			}
+			return ids.size();
+		}
+	}
+}